@@ -0,0 +1,92 @@
+package d_star;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A generated map and a planner for it, shared by every benchmark.  The
+ * map is generated from a fixed seed, so every run plans over exactly the
+ * same maps.
+ * @author Kevin Dittmar
+ */
+@State(Scope.Benchmark)
+public class MapState
+{
+    @Param({"RANDOM", "MAZE", "ROOMS", "TERRAIN"})
+    public MapLayout layout;
+    
+    //The number of rows and of columns in the map.
+    @Param({"100", "512", "1024", "4096"})
+    public int size;
+    
+    @Param({"D_STAR", "FOCUSED_D_STAR", "D_STAR_LITE", "HIERARCHICAL"})
+    public PlannerKind planner_kind;
+    
+    @Param({"TENTHS"})
+    public CostScale cost_scale;
+    
+    @Param({"EIGHT"})
+    public Neighborhood neighborhood;
+    
+    @Param({"42"})
+    public long seed;
+    
+    //Whether the planner keeps PlannerMetrics.
+    @Param({"false"})
+    public boolean metrics;
+    
+    //The threads a D* makes its first plan on, or 0 to plan on one thread.
+    @Param({"0"})
+    public int plan_threads;
+    
+    Grid grid;
+    Planner planner;
+    private ForkJoinPool plan_pool;
+    
+    /**
+     * Generate the map and create the planner.
+     */
+    @Setup
+    public void setUp()
+    {
+        grid = MapGenerator.generate(layout, size, size, seed);
+        planner = planner_kind.create(grid, cost_scale, neighborhood);
+        if (metrics)
+        {
+            planner.setMetrics(new PlannerMetrics());
+        }
+        if (plan_threads > 0 && planner instanceof D_Star)
+        {
+            plan_pool = new ForkJoinPool(plan_threads);
+            ((D_Star)planner).setPlanPool(plan_pool);
+        }
+    }
+    
+    /**
+     * Stop the threads of the planning pool, if there is one.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        if (plan_pool != null)
+        {
+            plan_pool.shutdown();
+            plan_pool = null;
+        }
+    }
+    
+    /**
+     * Plan from the map's start to its goal, forgetting any earlier plan.
+     * @return true if there is a path.
+     * @throws IOException never, since no trace is written.
+     */
+    boolean plan() throws IOException
+    {
+        return planner.plan(grid.getStart(), grid.getGoal());
+    }
+}
@@ -0,0 +1,67 @@
+package d_star;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long an initial plan from start to goal takes, and how many states
+ * per second the planner processes while making it.
+ * @author Kevin Dittmar
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PlanBenchmark
+{
+    /**
+     * Counts the states processed, which JMH reports per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Expansions
+    {
+        public long expansions;
+    }
+    
+    /**
+     * @param maps is the map and planner to use.
+     * @return whether there is a path, so that the plan isn't optimized away.
+     * @throws IOException never, since no trace is written.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean initialPlan(MapState maps) throws IOException
+    {
+        return maps.plan();
+    }
+    
+    /**
+     * The throughput of processState: the states processed per second
+     * while planning, reported as the expansions counter.
+     * @param maps is the map and planner to use.
+     * @param counters receives the number of states processed.
+     * @return whether there is a path, so that the plan isn't optimized away.
+     * @throws IOException never, since no trace is written.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean processState(MapState maps, Expansions counters)
+        throws IOException
+    {
+        boolean found = maps.plan();
+        counters.expansions += maps.planner.getExpansions();
+        return found;
+    }
+}
@@ -0,0 +1,61 @@
+package d_star;
+
+/**
+ * The planners that the benchmarks compare.
+ * @author Kevin Dittmar
+ */
+public enum PlannerKind
+{
+    /**
+     * D_Star, unfocused.
+     */
+    D_STAR,
+    
+    /**
+     * D_Star with Focused D* turned on.
+     */
+    FOCUSED_D_STAR,
+    
+    /**
+     * DStarLite.
+     */
+    D_STAR_LITE,
+    
+    /**
+     * HierarchicalPlanner with clusters of its default size.
+     */
+    HIERARCHICAL;
+    
+    /**
+     * Create a planner of this kind that writes no trace.
+     * @param grid is the map to plan over.
+     * @param scale is the scale of every path cost.
+     * @param neighborhood is the moves that the robot can make.
+     * @return the new planner.
+     */
+    Planner create(Grid grid, CostScale scale, Neighborhood neighborhood)
+    {
+        Planner planner;
+        switch (this)
+        {
+            case FOCUSED_D_STAR:
+                D_Star d_star = new D_Star(grid, scale, neighborhood);
+                d_star.setFocused(true);
+                planner = d_star;
+                break;
+            case D_STAR_LITE:
+                planner = new DStarLite(grid, scale, neighborhood);
+                break;
+            case HIERARCHICAL:
+                planner = new HierarchicalPlanner(
+                    grid, scale, HierarchicalPlanner.DEFAULT_CLUSTER_SIZE,
+                    neighborhood);
+                break;
+            default:
+                planner = new D_Star(grid, scale, neighborhood);
+                break;
+        }
+        planner.setTraceMode(TraceMode.OFF);
+        return planner;
+    }
+}
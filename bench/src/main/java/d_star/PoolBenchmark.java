@@ -0,0 +1,115 @@
+package d_star;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How many plans per second an AgentPool makes for many agents with random
+ * starts and goals on one shared map, on 1 to 8 threads.
+ * @author Kevin Dittmar
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PoolBenchmark
+{
+    /**
+     * A generated map and a pool of agents planning over it.
+     */
+    @State(Scope.Benchmark)
+    public static class PoolState
+    {
+        @Param({"RANDOM", "MAZE", "ROOMS", "TERRAIN"})
+        public MapLayout layout;
+        
+        //The number of rows and of columns in the map.
+        @Param({"100", "512"})
+        public int size;
+        
+        @Param({"D_STAR", "FOCUSED_D_STAR", "D_STAR_LITE", "HIERARCHICAL"})
+        public PlannerKind planner_kind;
+        
+        @Param({"64"})
+        public int agents;
+        
+        @Param({"1", "2", "4", "8"})
+        public int threads;
+        
+        @Param({"42"})
+        public long seed;
+        
+        AgentPool pool;
+        
+        /**
+         * Generate the map and give every agent a random start and goal.
+         */
+        @Setup
+        public void setUp()
+        {
+            Grid grid = MapGenerator.generate(layout, size, size, seed);
+            pool = new AgentPool(grid, threads);
+            Random random = new Random(seed);
+            for (int i = 0; i < agents; i++)
+            {
+                pool.addAgent(planner_kind.create(grid, CostScale.TENTHS,
+                                                  Neighborhood.EIGHT),
+                              AgentPool.randomOpenCell(grid, random),
+                              AgentPool.randomOpenCell(grid, random));
+            }
+        }
+        
+        /**
+         * Stop the pool's threads.
+         */
+        @TearDown
+        public void tearDown()
+        {
+            pool.close();
+        }
+    }
+    
+    /**
+     * Counts the plans made, which JMH reports per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Plans
+    {
+        public long plans;
+    }
+    
+    /**
+     * Plan every agent once, reporting the plans made per second as the
+     * plans counter.
+     * @param state is the pool of agents to plan.
+     * @param counters receives the number of plans made.
+     * @return the number of agents with a path, so that the plans aren't
+     * optimized away.
+     * @throws IOException never, since no trace is written.
+     * @throws InterruptedException if the benchmark is interrupted.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int planAll(PoolState state, Plans counters)
+        throws IOException, InterruptedException
+    {
+        int found = state.pool.planAll();
+        counters.plans += state.pool.size();
+        return found;
+    }
+}
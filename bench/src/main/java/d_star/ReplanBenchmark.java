@@ -0,0 +1,96 @@
+package d_star;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How long it takes to replan after the robot discovers that some of the
+ * cells on its planned path are blocked, as if they had been
+ * UNKNOWN_BLOCKED on the map.  Every measurement starts from a fresh plan,
+ * so each one is a single replan.
+ * @author Kevin Dittmar
+ */
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 30)
+@State(Scope.Benchmark)
+public class ReplanBenchmark
+{
+    //The number of path cells discovered to be blocked at once.
+    @Param({"1", "10", "100"})
+    public int discoveries;
+    
+    private Random random;
+    private List<CellUpdate> batch;
+    
+    /**
+     * Start choosing discoveries from the same seed as every other run.
+     * @param maps is the map and planner to use.
+     */
+    @Setup(Level.Trial)
+    public void setUpTrial(MapState maps)
+    {
+        random = new Random(maps.seed);
+    }
+    
+    /**
+     * Plan from scratch, then choose cells on the planned path, other than
+     * the start and the goal, to discover.
+     * @param maps is the map and planner to use.
+     * @throws IOException never, since no trace is written.
+     */
+    @Setup(Level.Iteration)
+    public void setUpIteration(MapState maps) throws IOException
+    {
+        maps.plan();
+        
+        List<Integer> path = new ArrayList<>();
+        Grid grid = maps.grid;
+        Node node = maps.planner.getNode(grid.getRow(grid.getStart()),
+                                         grid.getCol(grid.getStart()));
+        node = node.getBackpointer();
+        while (node != null && node.getIndex() != grid.getGoal() &&
+               path.size() < grid.size())
+        {
+            path.add(node.getIndex());
+            node = node.getBackpointer();
+        }
+        Collections.shuffle(path, random);
+        
+        batch = new ArrayList<>();
+        for (int cell : path.subList(0, Math.min(discoveries, path.size())))
+        {
+            batch.add(CellUpdate.blocked(cell));
+        }
+    }
+    
+    /**
+     * @param maps is the map and planner to use.
+     * @return whether there is still a path, so that the replan isn't
+     * optimized away.
+     * @throws IOException never, since no trace is written.
+     */
+    @Benchmark
+    public boolean replan(MapState maps) throws IOException
+    {
+        return maps.planner.updateCells(batch);
+    }
+}
@@ -0,0 +1,119 @@
+package d_star;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests that the routes a HierarchicalPlanner plans cost close to the
+ * cheapest paths that D_Star plans over the same maps.
+ * @author Kevin Dittmar
+ */
+public class HierarchicalPlannerTest
+{
+    private static final int[] CLUSTER_SIZES = {2, 3, 4, 8};
+    private static final int MAPS = 100;
+    
+    //The most that routes were measured to cost, as a ratio.
+    private static final float WORST = 1.3f;
+    
+    /**
+     * @param seed picks the map.
+     * @return a map between 8 and 39 cells on a side with up to 40% of its
+     * cells BLOCKED, and the start and goal anywhere.
+     */
+    private static Grid randomMap(long seed)
+    {
+        Random random = new Random(seed);
+        Grid grid = new Grid(8 + random.nextInt(32), 8 + random.nextInt(32));
+        int blocked = random.nextInt(40);
+        for (int cell = 0; cell < grid.size(); cell++)
+        {
+            if (random.nextInt(100) < blocked)
+            {
+                grid.setType(cell, Node.BLOCKED);
+            }
+        }
+        int start = random.nextInt(grid.size());
+        int goal = random.nextInt(grid.size() - 1);
+        grid.setType(start, Node.START);
+        grid.setType(goal < start ? goal : goal + 1, Node.GOAL);
+        return grid;
+    }
+    
+    /**
+     * @param planner is a planner that has planned over grid.
+     * @param grid is the map.
+     * @return the cost that the planner believes it is from the start to the
+     * goal.
+     */
+    private static float cost(Planner planner, Grid grid)
+    {
+        int start = grid.getStart();
+        return planner.getNode(grid.getRow(start), grid.getCol(start)).getH();
+    }
+    
+    @Test
+    public void routesCostCloseToTheCheapest() throws IOException
+    {
+        float total = 0;
+        float cheapest = 0;
+        for (Neighborhood neighborhood : Neighborhood.values())
+        {
+            for (int cluster_size : CLUSTER_SIZES)
+            {
+                for (int seed = 0; seed < MAPS; seed++)
+                {
+                    String what = neighborhood + " " + cluster_size + " " +
+                                  seed;
+                    Grid grid = randomMap(seed);
+                    D_Star d_star = new D_Star(grid, CostScale.TENTHS,
+                                               neighborhood);
+                    d_star.setTraceMode(TraceMode.OFF);
+                    HierarchicalPlanner planner = new HierarchicalPlanner(
+                        grid, CostScale.TENTHS, cluster_size, neighborhood);
+                    planner.setTraceMode(TraceMode.OFF);
+                    boolean found = d_star.plan(grid.getStart(),
+                                                grid.getGoal());
+                    assertEquals(what, found,
+                                 planner.plan(grid.getStart(),
+                                              grid.getGoal()));
+                    if (found)
+                    {
+                        float best = cost(d_star, grid);
+                        float route = cost(planner, grid);
+                        assertTrue(what + ": " + route + " vs " + best,
+                                   route >= best && route <= best * WORST);
+                        total += route;
+                        cheapest += best;
+                    }
+                }
+            }
+        }
+        assertTrue(total + " vs " + cheapest, total <= cheapest * 1.01f);
+    }
+    
+    @Test
+    public void stepsStraightAcrossABorder() throws IOException
+    {
+        /* The border between the two clusters is one run of open cells,
+         * whose only entrance is in the middle, far from the start and goal.
+         */
+        Grid grid = new Grid(4, 8);
+        grid.setType(grid.index(0, 3), Node.START);
+        grid.setType(grid.index(0, 4), Node.GOAL);
+        for (Neighborhood neighborhood : Neighborhood.values())
+        {
+            HierarchicalPlanner planner = new HierarchicalPlanner(
+                grid, CostScale.TENTHS, 4, neighborhood);
+            planner.setTraceMode(TraceMode.OFF);
+            assertTrue(planner.plan(grid.getStart(), grid.getGoal()));
+            assertEquals(neighborhood.toString(), 1, cost(planner, grid),
+                         0);
+            assertEquals(2, planner.getPlannedPath().length);
+        }
+    }
+}
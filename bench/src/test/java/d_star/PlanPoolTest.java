@@ -0,0 +1,110 @@
+package d_star;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * Tests that a D_Star's first plan on a plan pool leaves every cell with
+ * the same state, h, k and backpointer as a plan made on one thread, and
+ * that both replan the same way afterwards.
+ * @author Kevin Dittmar
+ */
+public class PlanPoolTest
+{
+    //Bigger than a Wavefront tile, so that costs cross tile borders.
+    private static final int SIZE = 150;
+    
+    private static final ForkJoinPool POOL = new ForkJoinPool(3);
+    
+    @AfterClass
+    public static void shutDown()
+    {
+        POOL.shutdown();
+    }
+    
+    /**
+     * @param grid is the map to plan over.
+     * @param neighborhood is the moves that the robot can make.
+     * @param pool is the plan pool, or null to plan on one thread.
+     * @return a planner that traces nothing.
+     */
+    private static D_Star planner(Grid grid, Neighborhood neighborhood,
+                                  ForkJoinPool pool)
+    {
+        D_Star planner = new D_Star(grid, CostScale.TENTHS, neighborhood);
+        planner.setTraceMode(TraceMode.OFF);
+        planner.setPlanPool(pool);
+        return planner;
+    }
+    
+    /**
+     * @param node is a cell's Node.
+     * @return the cell's state, h, k and backpointer.
+     */
+    private static String describe(Node node)
+    {
+        Node backpointer = node.getBackpointer();
+        return node.getState() + " " + node.getH() + " " + node.getK() +
+               " " + (backpointer == null ? "-" : backpointer.getRow() +
+                                                  "," + backpointer.getCol());
+    }
+    
+    /**
+     * Check that two planners believe the same of every cell.
+     * @param grid is the map that both plan over.
+     * @param expected is the planner that planned on one thread.
+     * @param actual is the planner that planned on the pool.
+     * @param what names the map for failure messages.
+     */
+    private static void assertSameCells(Grid grid, D_Star expected,
+                                        D_Star actual, String what)
+    {
+        for (int row = 0; row < grid.getRows(); row++)
+        {
+            for (int col = 0; col < grid.getCols(); col++)
+            {
+                assertEquals(what + " at " + row + "," + col,
+                             describe(expected.getNode(row, col)),
+                             describe(actual.getNode(row, col)));
+            }
+        }
+        assertArrayEquals(what, expected.getPlannedPath(),
+                          actual.getPlannedPath());
+    }
+    
+    @Test
+    public void poolPlansAsOneThreadDoes() throws IOException
+    {
+        for (Neighborhood neighborhood : Neighborhood.values())
+        {
+            for (MapLayout layout : MapLayout.values())
+            {
+                String what = neighborhood + " " + layout;
+                Grid grid = MapGenerator.generate(layout, SIZE, SIZE, 7);
+                D_Star one = planner(grid, neighborhood, null);
+                D_Star pooled = planner(grid, neighborhood, POOL);
+                assertEquals(what, one.plan(grid.getStart(), grid.getGoal()),
+                             pooled.plan(grid.getStart(), grid.getGoal()));
+                assertSameCells(grid, one, pooled, what);
+                
+                //Block a cell halfway along the path and replan.
+                int[] path = one.getPlannedPath();
+                if (path.length > 2)
+                {
+                    List<CellUpdate> blocked = Collections.singletonList(
+                        CellUpdate.blocked(path[path.length / 2]));
+                    assertEquals(what, one.updateCells(blocked),
+                                 pooled.updateCells(blocked));
+                    assertSameCells(grid, one, pooled, what + " replanned");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package d_star;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests that no planner offers the robot a path or a next step across a
+ * cell that it believes is BLOCKED, even where a search that found no path
+ * left backpointers behind.
+ * @author Kevin Dittmar
+ */
+public class PlannedPathTest
+{
+    private static final int ROWS = 4;
+    private static final int COLS = 30;
+    
+    /**
+     * @param grid is the map to plan over.
+     * @return one of every kind of planner, tracing nothing.
+     */
+    private static Planner[] planners(Grid grid)
+    {
+        Planner[] planners = {
+            new D_Star(grid), new DStarLite(grid),
+            new HierarchicalPlanner(grid)
+        };
+        for (Planner planner : planners)
+        {
+            planner.setTraceMode(TraceMode.OFF);
+        }
+        return planners;
+    }
+    
+    /**
+     * @param seed picks the map.
+     * @return a long, narrow map with about a third of its cells BLOCKED,
+     * the start in the first column and the goal in the last.
+     */
+    private static Grid randomMap(long seed)
+    {
+        Random random = new Random(seed);
+        Grid grid = new Grid(ROWS, COLS);
+        for (int cell = 0; cell < grid.size(); cell++)
+        {
+            if (random.nextInt(100) < 35)
+            {
+                grid.setType(cell, Node.BLOCKED);
+            }
+        }
+        grid.setType(grid.index(random.nextInt(ROWS), 0), Node.START);
+        grid.setType(grid.index(random.nextInt(ROWS), COLS - 1), Node.GOAL);
+        return grid;
+    }
+    
+    /**
+     * @return a map whose start and goal are on either side of a wall.
+     */
+    private static Grid walledMap()
+    {
+        Grid grid = new Grid(ROWS, COLS);
+        grid.fill(0, 20, ROWS, 1, Node.BLOCKED);
+        grid.setType(grid.index(0, 0), Node.START);
+        grid.setType(grid.index(0, COLS - 1), Node.GOAL);
+        return grid;
+    }
+    
+    /**
+     * Check that a planner offers no path at all.
+     * @param planner is the planner to check.
+     */
+    private static void assertNoPath(Planner planner)
+    {
+        String name = planner.getClass().getSimpleName();
+        assertArrayEquals(name, new int[0], planner.getPlannedPath());
+        assertArrayEquals(name, new int[0], planner.getSmoothedPath());
+        assertEquals(name, Grid.NO_CELL, planner.getNextStep());
+    }
+    
+    /**
+     * Check that a planner's path runs from the robot to the goal in single
+     * moves over cells that aren't BLOCKED.
+     * @param planner is the planner to check.
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     */
+    private static void assertOpenPath(Planner planner, int robot, int goal)
+    {
+        String name = planner.getClass().getSimpleName();
+        Grid grid = planner.getGrid();
+        int[] path = planner.getPlannedPath();
+        assertTrue(name, path.length > 0);
+        assertEquals(name, robot, path[0]);
+        assertEquals(name, goal, path[path.length - 1]);
+        for (int i = 0; i < path.length; i++)
+        {
+            assertNotEquals(name, Node.BLOCKED,
+                            planner.getNode(grid.getRow(path[i]),
+                                            grid.getCol(path[i])).getType());
+            if (i > 0)
+            {
+                int from = path[i - 1];
+                assertTrue(name, from != path[i] &&
+                    Math.abs(grid.getRow(from) - grid.getRow(path[i])) <= 1 &&
+                    Math.abs(grid.getCol(from) - grid.getCol(path[i])) <= 1);
+            }
+        }
+        assertEquals(name, path.length > 1 ? path[1] : Grid.NO_CELL,
+                     planner.getNextStep());
+    }
+    
+    @Test
+    public void walledOffGoalHasNoPath() throws IOException
+    {
+        Grid grid = walledMap();
+        for (Planner planner : planners(grid))
+        {
+            assertFalse(planner.plan(grid.getStart(), grid.getGoal()));
+            assertNoPath(planner);
+        }
+    }
+    
+    @Test
+    public void clearingTheWallGivesAPath() throws IOException
+    {
+        Grid grid = walledMap();
+        int gap = grid.index(2, 20);
+        for (Planner planner : planners(grid))
+        {
+            planner.plan(grid.getStart(), grid.getGoal());
+            assertNoPath(planner);
+            assertTrue(planner.updateCells(
+                Collections.singletonList(CellUpdate.cleared(gap))));
+            assertOpenPath(planner, grid.getStart(), grid.getGoal());
+        }
+    }
+    
+    @Test
+    public void randomMapsNeverCrossBlockedCells() throws IOException
+    {
+        //Seed 159 is a map where D* used to walk through the wall.
+        for (long seed = 0; seed < 300; seed++)
+        {
+            Grid grid = randomMap(seed);
+            for (Planner planner : planners(grid))
+            {
+                if (planner.plan(grid.getStart(), grid.getGoal()))
+                {
+                    assertOpenPath(planner, grid.getStart(), grid.getGoal());
+                }
+                else
+                {
+                    assertNoPath(planner);
+                }
+            }
+        }
+    }
+}
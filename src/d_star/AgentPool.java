@@ -0,0 +1,325 @@
+package d_star;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plans for many robots (agents) on the same map at once.  The Grid is
+ * shared by every agent and only ever read, while each agent's Planner owns
+ * its own SearchState and open list, so the agents never touch each other's
+ * search and a map only has to be loaded once however many robots use it.
+ *
+ * planAll spreads the agents over a fixed pool of threads.  Each thread
+ * takes the next agent that hasn't been planned yet until there are none
+ * left, so a few long plans don't hold up the rest.  Agents don't write
+ * traces, since they would all write the same output file.
+ *
+ * An AgentPool itself is not thread safe: add agents and call planAll
+ * from one thread, and don't change the map while planAll is running.
+ * @author Kevin Dittmar
+ */
+public class AgentPool implements AutoCloseable
+{
+    /**
+     * One robot: its planner and where it is going.
+     */
+    private static class Agent
+    {
+        private final Planner planner;
+        private int start;
+        private int goal;
+        private boolean has_path;
+        
+        /**
+         * @param planner plans for this agent alone.
+         * @param start is the cell where the agent is.
+         * @param goal is the cell that the agent is trying to reach.
+         */
+        private Agent(Planner planner, int start, int goal)
+        {
+            this.planner = planner;
+            this.start = start;
+            this.goal = goal;
+        }
+    }
+    
+    private final Grid grid;
+    private final int threads;
+    private final ExecutorService executor;
+    private final ArrayList<Agent> agents;
+    
+    //The total number of plans and how long the last planAll took.
+    private long plans;
+    private long last_nanos;
+    
+    /**
+     * Create a pool with one thread for every available processor.
+     * @param grid is the map that every agent plans over.
+     */
+    public AgentPool(Grid grid)
+    {
+        this(grid, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * @param grid is the map that every agent plans over.
+     * @param threads is the number of agents planned at once (at least 1).
+     */
+    public AgentPool(Grid grid, int threads)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException(
+                "An AgentPool needs at least 1 thread, not " + threads);
+        }
+        this.grid = grid;
+        this.threads = threads;
+        executor = Executors.newFixedThreadPool(threads);
+        agents = new ArrayList<>();
+    }
+    
+    /**
+     * @return the map that every agent plans over.
+     */
+    public Grid getGrid()
+    {
+        return grid;
+    }
+    
+    /**
+     * @return the number of agents planned at once.
+     */
+    public int getThreads()
+    {
+        return threads;
+    }
+    
+    /**
+     * Add an agent.  Its trace mode is set to TraceMode.OFF.
+     * @param planner plans for the new agent alone; it must plan over this
+     * pool's map and must not be used by any other agent.
+     * @param start is the cell where the agent is.
+     * @param goal is the cell that the agent is trying to reach.
+     * @return the number of the new agent, counting from 0.
+     */
+    public int addAgent(Planner planner, int start, int goal)
+    {
+        if (planner.getGrid() != grid)
+        {
+            throw new IllegalArgumentException(
+                "The planner plans over a different map than the pool");
+        }
+        planner.setTraceMode(TraceMode.OFF);
+        agents.add(new Agent(planner, start, goal));
+        return agents.size() - 1;
+    }
+    
+    /**
+     * Give an agent a new start and goal for the next planAll.
+     * @param agent is the number of the agent.
+     * @param start is the cell where the agent is.
+     * @param goal is the cell that the agent is trying to reach.
+     */
+    public void setTask(int agent, int start, int goal)
+    {
+        Agent entry = agents.get(agent);
+        entry.start = start;
+        entry.goal = goal;
+    }
+    
+    /**
+     * @return the number of agents.
+     */
+    public int size()
+    {
+        return agents.size();
+    }
+    
+    /**
+     * @param agent is the number of the agent.
+     * @return the agent's planner, which holds its last plan.
+     */
+    public Planner getPlanner(int agent)
+    {
+        return agents.get(agent).planner;
+    }
+    
+    /**
+     * @param agent is the number of the agent.
+     * @return true if the last planAll found a path for the agent.
+     */
+    public boolean hasPath(int agent)
+    {
+        return agents.get(agent).has_path;
+    }
+    
+    /**
+     * Plan every agent from its start to its goal, as many at once as the
+     * pool has threads, and wait for them all to finish.
+     * @return the number of agents that have a path.
+     * @throws IOException if a planner fails.
+     * @throws InterruptedException if the wait is interrupted.
+     */
+    public int planAll() throws IOException, InterruptedException
+    {
+        final AtomicInteger next = new AtomicInteger();
+        Callable<Integer> worker = new Callable<Integer>()
+        {
+            @Override
+            public Integer call() throws IOException
+            {
+                int found = 0;
+                int agent;
+                while ((agent = next.getAndIncrement()) < agents.size())
+                {
+                    Agent entry = agents.get(agent);
+                    entry.has_path = entry.planner.plan(entry.start,
+                                                        entry.goal);
+                    if (entry.has_path)
+                    {
+                        found++;
+                    }
+                }
+                return found;
+            }
+        };
+        
+        long start_time = System.nanoTime();
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < Math.min(threads, agents.size()); i++)
+        {
+            results.add(executor.submit(worker));
+        }
+        int found = 0;
+        try
+        {
+            for (Future<Integer> result : results)
+            {
+                found += result.get();
+            }
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+            {
+                throw (IOException)ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+        last_nanos = System.nanoTime() - start_time;
+        plans += agents.size();
+        return found;
+    }
+    
+    /**
+     * @return the number of plans made by every planAll so far.
+     */
+    public long getPlans()
+    {
+        return plans;
+    }
+    
+    /**
+     * @return how long the last planAll took, in nanoseconds.
+     */
+    public long getLastNanos()
+    {
+        return last_nanos;
+    }
+    
+    /**
+     * @return the number of plans per second that the last planAll made
+     * across all of its threads, or 0 if it hasn't been called.
+     */
+    public double getPlansPerSecond()
+    {
+        return last_nanos == 0 ? 0.0 : agents.size() * 1e9 / last_nanos;
+    }
+    
+    /**
+     * Stop the pool's threads.  planAll can't be called afterwards.
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+    }
+    
+    /**
+     * @param grid is a map.
+     * @param random chooses the cell.
+     * @return a random cell that the map doesn't show as blocked.
+     */
+    static int randomOpenCell(Grid grid, Random random)
+    {
+        if (grid.count(Node.BLOCKED) + grid.count(Node.UNKNOWN_BLOCKED) ==
+            grid.size())
+        {
+            throw new IllegalArgumentException("Every cell is blocked");
+        }
+        while (true)
+        {
+            int cell = random.nextInt(grid.size());
+            if (!grid.isObstacle(cell))
+            {
+                return cell;
+            }
+        }
+    }
+    
+    /**
+     * Plan for many agents with random starts and goals on one map and
+     * report the throughput.
+     * @param args the map file, the number of agents, and optionally the
+     * number of threads (one per processor by default).
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 2 || args.length > 3)
+        {
+            System.err.println("Usage: java d_star.AgentPool map.txt " +
+                               "agents [threads]");
+            System.exit(1);
+        }
+        try
+        {
+            Grid grid = MapLoader.load(new File(args[0]));
+            int count = Integer.parseInt(args[1]);
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) :
+                          Runtime.getRuntime().availableProcessors();
+            try (AgentPool pool = new AgentPool(grid, threads))
+            {
+                Random random = new Random(42);
+                for (int i = 0; i < count; i++)
+                {
+                    pool.addAgent(new D_Star(grid),
+                                  randomOpenCell(grid, random),
+                                  randomOpenCell(grid, random));
+                }
+                int found = pool.planAll();
+                System.out.println(String.format(
+                    "%d agents on %d threads: %d paths in %.1f ms, " +
+                    "%.1f plans/sec", count, threads, found,
+                    pool.getLastNanos() / 1e6, pool.getPlansPerSecond()));
+            }
+        }
+        catch (IOException | IllegalArgumentException ex)
+        {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
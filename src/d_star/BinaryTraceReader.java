@@ -0,0 +1,313 @@
+package d_star;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads a trace written in TraceMode.BINARY.  The trace is memory-mapped
+ * one keyframe at a time: seeking to a step finds the last keyframe at or
+ * before it with a binary search over the index, then replays the delta
+ * records from there over the map from the trace's header.  The world at
+ * any step can be written out in the same text format as TraceMode.FULL.
+ * @author Kevin Dittmar
+ */
+public class BinaryTraceReader implements Closeable
+{
+    private final FileChannel channel;
+    private final int steps;
+    private final long index_offset;
+    private final int[] keyframe_steps;
+    private final long[] keyframe_offsets;
+    
+    //The world as of current_step.
+    private final SearchState world;
+    private int current_step;
+    private int robot;
+    
+    //The mapped records from the current keyframe up to the next one.
+    private MappedByteBuffer segment;
+    private int segment_keyframe;
+    
+    /**
+     * Open a binary trace and read its header and keyframe index.
+     * @param file is the trace to read.
+     * @throws IOException if the file can't be read or isn't a binary trace.
+     */
+    public BinaryTraceReader(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            long size = channel.size();
+            if (size < BinaryTraceWriter.HEADER_BYTES +
+                       BinaryTraceWriter.FOOTER_BYTES)
+            {
+                throw new IOException("Not a binary trace: " + file);
+            }
+            MappedByteBuffer header = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0,
+                BinaryTraceWriter.HEADER_BYTES);
+            MappedByteBuffer footer = channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                size - BinaryTraceWriter.FOOTER_BYTES,
+                BinaryTraceWriter.FOOTER_BYTES);
+            if (header.getInt() != BinaryTraceWriter.MAGIC ||
+                header.getInt() != BinaryTraceWriter.VERSION)
+            {
+                throw new IOException("Not a binary trace: " + file);
+            }
+            Grid grid = new Grid(header.getInt(), header.getInt());
+            CostScale scale = CostScale.values()[header.get()];
+            
+            index_offset = footer.getLong();
+            steps = footer.getInt();
+            if (footer.getInt() != BinaryTraceWriter.MAGIC)
+            {
+                throw new IOException("Incomplete binary trace: " + file);
+            }
+            
+            MappedByteBuffer index = channel.map(
+                FileChannel.MapMode.READ_ONLY, index_offset,
+                size - BinaryTraceWriter.FOOTER_BYTES - index_offset);
+            int keyframes = index.getInt();
+            keyframe_steps = new int[keyframes];
+            keyframe_offsets = new long[keyframes];
+            for (int i = 0; i < keyframes; i++)
+            {
+                keyframe_steps[i] = index.getInt();
+                keyframe_offsets[i] = index.getLong();
+            }
+            
+            //The map runs from the header to the first step.
+            long map_end = keyframes > 0 ? keyframe_offsets[0] : index_offset;
+            readMap(channel.map(FileChannel.MapMode.READ_ONLY,
+                                BinaryTraceWriter.HEADER_BYTES,
+                                map_end - BinaryTraceWriter.HEADER_BYTES),
+                    grid);
+            world = new SearchState(grid, scale);
+        }
+        catch (IOException | RuntimeException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+        current_step = -1;
+        robot = Grid.NO_CELL;
+        segment_keyframe = -1;
+    }
+    
+    /**
+     * @return the number of steps in the trace.
+     */
+    public int getSteps()
+    {
+        return steps;
+    }
+    
+    /**
+     * @return the world as of the last step that was seeked to.
+     */
+    public SearchState getSearchState()
+    {
+        return world;
+    }
+    
+    /**
+     * Rebuild the world as it was at the given step.  Seeking forward from
+     * the current step only replays the records in between.
+     * @param step is the step to seek to (0 <= step < getSteps()).
+     * @return the cell that the robot occupied at that step.
+     * @throws IOException if the trace can't be read.
+     */
+    public int seek(int step) throws IOException
+    {
+        if (step < 0 || step >= steps)
+        {
+            throw new IndexOutOfBoundsException("No step " + step + " in a " +
+                                                "trace of " + steps + " steps");
+        }
+        int keyframe = findKeyframe(step);
+        if (keyframe != segment_keyframe || current_step > step)
+        {
+            long start = keyframe_offsets[keyframe];
+            long end = keyframe + 1 < keyframe_offsets.length ?
+                       keyframe_offsets[keyframe + 1] : index_offset;
+            segment = channel.map(FileChannel.MapMode.READ_ONLY,
+                                  start, end - start);
+            segment_keyframe = keyframe;
+            current_step = keyframe_steps[keyframe] - 1;
+        }
+        while (current_step < step)
+        {
+            readRecord();
+        }
+        return robot;
+    }
+    
+    /**
+     * Write the world at the given step in the TraceMode.FULL text format.
+     * @param step is the step to write.
+     * @param out is where the snapshot is written.  It is not closed.
+     * @throws IOException if the trace can't be read or the snapshot can't
+     * be written.
+     */
+    public void writeSnapshot(int step, OutputStream out) throws IOException
+    {
+        int robot_cell = seek(step);
+        SnapshotWriter writer = new SnapshotWriter(out, world);
+        writer.write(robot_cell);
+        writer.flush();
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        segment = null;
+        channel.close();
+    }
+    
+    /**
+     * Binary search the index for the last keyframe at or before a step.
+     * @param step is the step in question.
+     * @return the position of the keyframe in the index.
+     */
+    private int findKeyframe(int step)
+    {
+        int low = 0;
+        int high = keyframe_steps.length - 1;
+        while (low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if (keyframe_steps[middle] <= step)
+            {
+                low = middle;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+    
+    /**
+     * Apply the next record in the current segment to the world.
+     */
+    private void readRecord()
+    {
+        byte kind = segment.get();
+        robot = (int)getVarint(segment) - 1;
+        int count = (int)getVarint(segment);
+        if (kind == BinaryTraceWriter.KEYFRAME_RECORD)
+        {
+            world.reset();
+        }
+        Grid grid = world.getGrid();
+        int cell = 0;
+        for (int i = 0; i < count; i++)
+        {
+            cell += (int)getVarint(segment);
+            int h = (int)getVarint(segment);
+            int k = (int)(h - unzigzag(getVarint(segment)));
+            long b = getVarint(segment);
+            int flags = segment.get();
+            world.setH(cell, h);
+            world.setK(cell, k);
+            world.setBackpointer(cell, b == 0 ? Grid.NO_CELL :
+                                       (int)(cell + unzigzag(b - 1)));
+            world.setState(cell, flags & BinaryTraceWriter.STATE_MASK);
+            world.setType(cell, (flags & BinaryTraceWriter.TYPE_FLAG) != 0 ?
+                                (char)segment.get() : grid.getType(cell));
+        }
+        current_step++;
+    }
+    
+    /**
+     * Mark the cells listed in a trace's map with their types.
+     * @param map is the map section of the trace.
+     * @param grid is the map to mark.
+     */
+    private static void readMap(MappedByteBuffer map, Grid grid)
+    {
+        int count = (int)getVarint(map);
+        int cell = 0;
+        for (int i = 0; i < count; i++)
+        {
+            cell += (int)getVarint(map);
+            grid.setType(cell, (char)map.get());
+        }
+    }
+    
+    /**
+     * @param in is where the varint is read from.
+     * @return the next varint.
+     */
+    private static long getVarint(ByteBuffer in)
+    {
+        long value = 0;
+        int shift = 0;
+        byte next;
+        do
+        {
+            next = in.get();
+            value |= (long)(next & 0x7F) << shift;
+            shift += 7;
+        }
+        while (next < 0);
+        return value;
+    }
+    
+    /**
+     * @param value is a number written with BinaryTraceWriter.zigzag.
+     * @return the signed number.
+     */
+    private static long unzigzag(long value)
+    {
+        return value >>> 1 ^ -(value & 1);
+    }
+    
+    /**
+     * Write snapshots from a binary trace in the TraceMode.FULL text format.
+     * @param args the binary trace to read, the file to write to, and
+     * optionally the single step to write.  Without a step, every step is
+     * written.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 2 && args.length != 3)
+        {
+            System.err.println("Usage: BinaryTraceReader <binary trace> " +
+                               "<output> [step]");
+            System.exit(1);
+        }
+        try (BinaryTraceReader reader = new BinaryTraceReader(new File(args[0]));
+             OutputStream out = new FileOutputStream(new File(args[1])))
+        {
+            if (args.length == 3)
+            {
+                reader.writeSnapshot(Integer.parseInt(args[2]), out);
+            }
+            else
+            {
+                for (int step = 0; step < reader.getSteps(); step++)
+                {
+                    reader.writeSnapshot(step, out);
+                }
+            }
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(BinaryTraceReader.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package d_star;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Records what changed in the world between steps in a compact binary
+ * format.  Fixed-size values are big-endian, and every varint is an
+ * unsigned LEB128 number: seven bits to a byte, lowest first, with the
+ * high bit set on every byte but the last.
+ * <pre>
+ * header:   int MAGIC, int VERSION, int rows, int cols, byte scale
+ * map:      varint count, then count cells of
+ *           varint gap, byte type
+ * step:     byte kind, varint robot + 1, varint count, then count cells of
+ *           varint gap, varint h, varint zigzag(h - k), varint b, byte flags
+ *           [byte type, if flags has TYPE_FLAG]
+ * index:    int keyframes, then per keyframe int step, long offset
+ * footer:   long index offset, int steps, int MAGIC
+ * </pre>
+ * scale is the ordinal of the search's CostScale, and h and k are costs in
+ * that scale, with CostScale.INFINITY written as it is.  The map lists the
+ * cells whose type on the map isn't UNRESTRICTED, so that a reader can
+ * start from the same map as the search.  Within the map and within each
+ * step, cells are in index order and each is written as its gap from the
+ * one before, the first one as its gap from cell 0.  b is 0 for no
+ * backpointer and otherwise zigzag(b - cell) + 1, which for a neighbor is
+ * one or two bytes on any map narrower than 8190 columns.  The low bits of
+ * flags hold the state, and the type follows only when the search believes
+ * something other than the map does.
+ *
+ * A DELTA_RECORD step holds the cells that changed since the previous step,
+ * as listed by the search (see ChangedCells).  A KEYFRAME_RECORD holds
+ * every cell that the search has written since its last reset instead, so
+ * a reader can rebuild any step from the nearest keyframe before it and the
+ * map.  The first step is a keyframe, and after that a step is one once
+ * the delta records since the last keyframe hold KEYFRAME_RATIO times as
+ * many cells as the keyframe would.  Keyframes then take at most about a
+ * KEYFRAME_RATIO'th of the trace, however much of the map the search has
+ * written, and seeking replays at most that many keyframes' worth of cells.
+ * The index lists the keyframes in step order.
+ * @author Kevin Dittmar
+ */
+class BinaryTraceWriter implements Trace
+{
+    static final int MAGIC = 0x44535452;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 17;
+    static final int FOOTER_BYTES = 16;
+    static final int INDEX_ENTRY_BYTES = 12;
+    
+    static final byte DELTA_RECORD = 0;
+    static final byte KEYFRAME_RECORD = 1;
+    static final int KEYFRAME_RATIO = 4;
+    
+    //The state is in the low bits of a cell's flags.
+    static final int STATE_MASK = 3;
+    static final int TYPE_FLAG = 4;
+    
+    //The most bytes that a varint, a step's header and a cell can take.
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final int MAX_RECORD_HEADER_BYTES = 11;
+    private static final int MAX_CELL_BYTES = 4 * MAX_VARINT_BYTES + 2;
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final SearchState world;
+    private final Grid grid;
+    
+    //The cells that changed since the last step.
+    private final ChangedCells changes;
+    
+    //The cells of a keyframe, which are listed here to sort them.
+    private final ChangedCells keyframe_cells;
+    
+    //Number of bytes written to the channel so far.
+    private long drained;
+    private int steps;
+    
+    //Number of cells in delta records since the last keyframe.
+    private long delta_cells;
+    
+    private int[] keyframe_steps;
+    private long[] keyframe_offsets;
+    private int keyframes;
+    
+    /**
+     * @param channel is where the trace is written.  It is closed when this
+     * BinaryTraceWriter is closed.
+     * @param world is the SearchState to trace.
+     * @throws IOException if the header can't be written.
+     */
+    BinaryTraceWriter(FileChannel channel, SearchState world)
+        throws IOException
+    {
+        this.channel = channel;
+        this.world = world;
+        grid = world.getGrid();
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        keyframe_steps = new int[16];
+        keyframe_offsets = new long[16];
+        
+        ensure(HEADER_BYTES);
+        buffer.putInt(MAGIC).putInt(VERSION)
+              .putInt(grid.getRows()).putInt(grid.getCols())
+              .put((byte)world.getCostScale().ordinal());
+        writeMap();
+        
+        //The first step is a keyframe, so changes start being listed now.
+        changes = new ChangedCells(grid.size());
+        keyframe_cells = new ChangedCells(grid.size());
+        world.setChangedCells(changes);
+    }
+    
+    /**
+     * Write the robot's position and the cells that changed since the last
+     * step, or every cell that the search has written if this step is a
+     * keyframe.
+     * @param robot is the cell that the robot occupies.
+     * @throws IOException if the trace can't be written to.
+     */
+    @Override
+    public void write(int robot) throws IOException
+    {
+        boolean keyframe = steps == 0 ||
+            delta_cells >= (long)KEYFRAME_RATIO * world.getTouchedCount();
+        ChangedCells cells = changes;
+        if (keyframe)
+        {
+            addKeyframe(steps, position());
+            world.forEachTouched(keyframe_cells::add);
+            cells = keyframe_cells;
+            delta_cells = 0;
+        }
+        else
+        {
+            delta_cells += cells.size();
+        }
+        cells.sort();
+        
+        ensure(MAX_RECORD_HEADER_BYTES);
+        buffer.put(keyframe ? KEYFRAME_RECORD : DELTA_RECORD);
+        putVarint(robot + 1);
+        putVarint(cells.size());
+        int last = 0;
+        for (int i = 0; i < cells.size(); i++)
+        {
+            int cell = cells.get(i);
+            int h = world.getH(cell);
+            int b = world.getBackpointer(cell);
+            char type = world.getType(cell);
+            boolean odd_type = type != grid.getType(cell);
+            
+            ensure(MAX_CELL_BYTES);
+            putVarint(cell - last);
+            putVarint(h);
+            putVarint(zigzag((long)h - world.getK(cell)));
+            putVarint(b == Grid.NO_CELL ? 0 : zigzag((long)b - cell) + 1);
+            buffer.put((byte)(world.getState(cell) |
+                              (odd_type ? TYPE_FLAG : 0)));
+            if (odd_type)
+            {
+                buffer.put((byte)type);
+            }
+            last = cell;
+        }
+        changes.clear();
+        keyframe_cells.clear();
+        steps++;
+    }
+    
+    /**
+     * Write the keyframe index and footer, then close the channel.
+     * @throws IOException if the trace can't be written to.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        world.setChangedCells(null);
+        long index_offset = position();
+        ensure(4);
+        buffer.putInt(keyframes);
+        for (int i = 0; i < keyframes; i++)
+        {
+            ensure(INDEX_ENTRY_BYTES);
+            buffer.putInt(keyframe_steps[i]).putLong(keyframe_offsets[i]);
+        }
+        ensure(FOOTER_BYTES);
+        buffer.putLong(index_offset).putInt(steps).putInt(MAGIC);
+        drain();
+        channel.close();
+    }
+    
+    /**
+     * Write every cell whose type on the map isn't UNRESTRICTED.  This is
+     * the only time that the writer looks at every cell.
+     * @throws IOException if the trace can't be written to.
+     */
+    private void writeMap() throws IOException
+    {
+        int size = grid.size();
+        int count = size - grid.count(Node.UNRESTRICTED);
+        ensure(MAX_VARINT_BYTES);
+        putVarint(count);
+        int last = 0;
+        for (int cell = 0; cell < size; cell++)
+        {
+            char type = grid.getType(cell);
+            if (type != Node.UNRESTRICTED)
+            {
+                ensure(MAX_VARINT_BYTES + 1);
+                putVarint(cell - last);
+                buffer.put((byte)type);
+                last = cell;
+            }
+        }
+    }
+    
+    /**
+     * @param value is a signed number.
+     * @return the number with its sign moved to the lowest bit, so that
+     * numbers near 0 of either sign make short varints.
+     */
+    static long zigzag(long value)
+    {
+        return value << 1 ^ value >> 63;
+    }
+    
+    /**
+     * Put a varint in the buffer, which must have room for it.
+     * @param value is the number to put, at least 0.
+     */
+    private void putVarint(long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buffer.put((byte)(value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+    
+    /**
+     * @return the number of bytes written to the channel or the buffer so
+     * far.
+     */
+    private long position()
+    {
+        return drained + buffer.position();
+    }
+    
+    /**
+     * Remember where a keyframe starts.
+     * @param step is the step number of the keyframe.
+     * @param offset is the byte offset of the keyframe in the trace.
+     */
+    private void addKeyframe(int step, long offset)
+    {
+        if (keyframes == keyframe_steps.length)
+        {
+            keyframe_steps = Arrays.copyOf(keyframe_steps, keyframes * 2);
+            keyframe_offsets = Arrays.copyOf(keyframe_offsets, keyframes * 2);
+        }
+        keyframe_steps[keyframes] = step;
+        keyframe_offsets[keyframes] = offset;
+        keyframes++;
+    }
+    
+    /**
+     * Make sure that the buffer has room for the given number of bytes,
+     * writing it to the channel if it doesn't.
+     * @param bytes is the number of bytes about to be put in the buffer.
+     * @throws IOException if the channel can't be written to.
+     */
+    private void ensure(int bytes) throws IOException
+    {
+        if (buffer.remaining() < bytes)
+        {
+            drain();
+        }
+    }
+    
+    /**
+     * Write everything in the buffer to the channel and empty it.
+     * @throws IOException if the channel can't be written to.
+     */
+    private void drain() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            drained += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,153 @@
+package d_star;
+
+import java.util.Arrays;
+
+/**
+ * One bit for every cell of a map, packed 64 to a long, such as whether
+ * each cell is BLOCKED.  Runs of cells are set, cleared and counted a
+ * whole word at a time.  The words aren't allocated until a bit is first
+ * set, so a layer that is never used costs nothing.
+ * @author Kevin Dittmar
+ */
+final class BitLayer
+{
+    //Cell i is bit i & 63 of word i >>> WORD_SHIFT.
+    private static final int WORD_SHIFT = 6;
+    private static final int WORD_BITS = 1 << WORD_SHIFT;
+    
+    private final int size;
+    
+    //Every bit, or null while no bit has been set.
+    private long[] words;
+    
+    /**
+     * Create a layer with every bit clear.
+     * @param size is the number of cells in the map.
+     */
+    BitLayer(int size)
+    {
+        this.size = size;
+    }
+    
+    /**
+     * @return the words of the layer, allocating them if they aren't yet.
+     */
+    private long[] words()
+    {
+        if (words == null)
+        {
+            words = new long[(int)(((long)size + WORD_BITS - 1) >>>
+                                   WORD_SHIFT)];
+        }
+        return words;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return true if the cell's bit is set.
+     */
+    boolean get(int cell)
+    {
+        long[] bits = words;
+        return bits != null && (bits[cell >>> WORD_SHIFT] & 1L << cell) != 0;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param value is the cell's new bit.
+     */
+    void set(int cell, boolean value)
+    {
+        if (value)
+        {
+            words()[cell >>> WORD_SHIFT] |= 1L << cell;
+        }
+        else if (words != null)
+        {
+            words[cell >>> WORD_SHIFT] &= ~(1L << cell);
+        }
+    }
+    
+    /**
+     * Set the bits of a run of up to 64 consecutive cells at once.
+     * @param cell is the index of the first cell.
+     * @param count is the number of cells (1 to 64).
+     * @param bits holds the bit of cell + i in bit i.
+     */
+    void setBits(int cell, int count, long bits)
+    {
+        if (words == null && bits == 0)
+        {
+            return;
+        }
+        long[] layer = words();
+        long mask = count == WORD_BITS ? -1L : (1L << count) - 1;
+        bits &= mask;
+        int word = cell >>> WORD_SHIFT;
+        int shift = cell & (WORD_BITS - 1);
+        layer[word] = layer[word] & ~(mask << shift) | bits << shift;
+        if (shift + count > WORD_BITS)
+        {
+            int spill = WORD_BITS - shift;
+            layer[word + 1] = layer[word + 1] & ~(mask >>> spill) |
+                              bits >>> spill;
+        }
+    }
+    
+    /**
+     * Set or clear the bits of a run of consecutive cells, a word at a time.
+     * @param from is the index of the first cell.
+     * @param to is the index after the last cell.
+     * @param value is the new bit of every cell in the run.
+     */
+    void fill(int from, int to, boolean value)
+    {
+        if (from >= to || (words == null && !value))
+        {
+            return;
+        }
+        long[] layer = words();
+        int first = from >>> WORD_SHIFT;
+        int last = (to - 1) >>> WORD_SHIFT;
+        long first_mask = -1L << from;
+        int last_bit = (to - 1) & (WORD_BITS - 1);
+        long last_mask = -1L >>> (WORD_BITS - 1 - last_bit);
+        if (first == last)
+        {
+            apply(layer, first, first_mask & last_mask, value);
+            return;
+        }
+        apply(layer, first, first_mask, value);
+        Arrays.fill(layer, first + 1, last, value ? -1L : 0L);
+        apply(layer, last, last_mask, value);
+    }
+    
+    /**
+     * Set or clear some of the bits of one word.
+     * @param layer is the words of the layer.
+     * @param word is the number of the word.
+     * @param mask is the bits to change.
+     * @param value is their new value.
+     */
+    private static void apply(long[] layer, int word, long mask,
+                              boolean value)
+    {
+        layer[word] = value ? layer[word] | mask : layer[word] & ~mask;
+    }
+    
+    /**
+     * @return the number of cells whose bit is set.
+     */
+    int count()
+    {
+        int count = 0;
+        if (words != null)
+        {
+            for (long word : words)
+            {
+                count += Long.bitCount(word);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,83 @@
+package d_star;
+
+/**
+ * A change to a single cell reported by the robot's sensors: the cell is
+ * now known to be blocked, clear, or terrain that costs more or less to
+ * cross than it did.
+ * @author Kevin Dittmar
+ */
+public final class CellUpdate
+{
+    private final int cell;
+    private final char type;
+    
+    /**
+     * @param cell is the index of the cell that changed.
+     * @param type is the cell's new type, one of the type constants in Node.
+     */
+    private CellUpdate(int cell, char type)
+    {
+        this.cell = cell;
+        this.type = type;
+    }
+    
+    /**
+     * @param cell is the index of a cell that is now blocked.
+     * @return an update that blocks the cell.
+     */
+    public static CellUpdate blocked(int cell)
+    {
+        return new CellUpdate(cell, Node.BLOCKED);
+    }
+    
+    /**
+     * @param cell is the index of a cell that is now clear.
+     * @return an update that clears the cell.
+     */
+    public static CellUpdate cleared(int cell)
+    {
+        return new CellUpdate(cell, Node.UNRESTRICTED);
+    }
+    
+    /**
+     * @param cell is the index of a cell whose terrain changed.
+     * @param weight is how many times as expensive the cell now is to cross
+     * as clear ground, from 1 to 9.
+     * @return an update that gives the cell that weight.
+     * @throws IllegalArgumentException if the weight is out of range.
+     */
+    public static CellUpdate terrain(int cell, int weight)
+    {
+        if (weight < 1 || weight > Node.MAX_WEIGHT)
+        {
+            throw new IllegalArgumentException(
+                "Terrain weight must be from 1 to " + Node.MAX_WEIGHT +
+                ", not " + weight);
+        }
+        return new CellUpdate(cell, Node.terrain(weight));
+    }
+    
+    /**
+     * @return the index of the cell that changed.
+     */
+    public int getCell()
+    {
+        return cell;
+    }
+    
+    /**
+     * @return the cell's new type, one of the type constants in Node.
+     */
+    char getType()
+    {
+        return type;
+    }
+    
+    /**
+     * @return true if the cell is now blocked.
+     */
+    public boolean isBlocked()
+    {
+        return type == Node.BLOCKED;
+    }
+}
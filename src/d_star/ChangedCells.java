@@ -0,0 +1,108 @@
+package d_star;
+
+import java.util.Arrays;
+
+/**
+ * The cells whose h, k, b, state or type a SearchState has written since
+ * the list was last cleared, each listed once.  A trace that records only
+ * what changed between steps hands one to SearchState.setChangedCells and
+ * reads it at every step, so a step costs time for the few cells that it
+ * wrote rather than for every cell of the map.
+ * @author Kevin Dittmar
+ */
+final class ChangedCells
+{
+    //One bit per cell, set for the cells that are listed.
+    private final BitLayer listed;
+    
+    private int[] cells;
+    private int count;
+    
+    /**
+     * Create an empty list.
+     * @param size is the number of cells in the map.
+     */
+    ChangedCells(int size)
+    {
+        listed = new BitLayer(size);
+        cells = new int[64];
+    }
+    
+    /**
+     * Start listing the cells of a SearchState as they change, starting
+     * with every cell that isn't blank now, so that what is listed first
+     * is measured against a blank world.  This looks at every cell once.
+     * @param world is the SearchState to follow.
+     * @return the list, which the SearchState adds to until it is given
+     * another.
+     */
+    static ChangedCells track(SearchState world)
+    {
+        int size = world.getGrid().size();
+        ChangedCells changes = new ChangedCells(size);
+        for (int cell = 0; cell < size; cell++)
+        {
+            if (!world.isBlank(cell))
+            {
+                changes.add(cell);
+            }
+        }
+        world.setChangedCells(changes);
+        return changes;
+    }
+    
+    /**
+     * List a cell, unless it is already listed.
+     * @param cell is the index of a cell.
+     */
+    void add(int cell)
+    {
+        if (listed.get(cell))
+        {
+            return;
+        }
+        listed.set(cell, true);
+        if (count == cells.length)
+        {
+            cells = Arrays.copyOf(cells, count * 2);
+        }
+        cells[count++] = cell;
+    }
+    
+    /**
+     * @return the number of cells listed.
+     */
+    int size()
+    {
+        return count;
+    }
+    
+    /**
+     * @param i is the position of a cell in the list (0 <= i < size()).
+     * @return the index of the cell.
+     */
+    int get(int i)
+    {
+        return cells[i];
+    }
+    
+    /**
+     * Put the listed cells in index order.
+     */
+    void sort()
+    {
+        Arrays.sort(cells, 0, count);
+    }
+    
+    /**
+     * Empty the list.
+     */
+    void clear()
+    {
+        for (int i = 0; i < count; i++)
+        {
+            listed.set(cells[i], false);
+        }
+        count = 0;
+    }
+}
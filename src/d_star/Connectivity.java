@@ -0,0 +1,608 @@
+package d_star;
+
+import java.util.Arrays;
+
+/**
+ * Keeps an index of the connected pieces of the open cells that the robot
+ * believes in, so that a planner can tell at once whether the robot has
+ * been walled off from the goal, and report that there is no path as soon
+ * as a newly blocked cell closes the wall instead of raising the cost of
+ * every state behind it to infinity first.
+ *
+ * Two open cells are connected if the robot can move between them with
+ * the planner's moves, i.e. the SearchState's neighbors of a cell joined
+ * to it by an edge of finite cost, so a diagonal that mustn't cut a
+ * blocked corner doesn't join the cells at either end.
+ *
+ * The index only holds what the robot has learned since its last plan from
+ * scratch: every cell starts with the same label, and only the cells of a
+ * piece that a blocked cell has split off are given another, along with a
+ * union-find forest over labels for pieces that have been joined since.
+ * Every label is a whole number of pieces, so two cells with different
+ * labels can't be connected, while two with the same label may still be
+ * apart in ways that the index hasn't seen, e.g. on the map as it was
+ * loaded, which the planner finds out for itself.
+ *
+ * Clearing a cell joins the pieces of its neighbors with a union for each
+ * one.  Blocking a cell can only split a piece, never join two.  Most
+ * blocked cells can't split anything: if the open cells around one are
+ * all connected to each other around it, every path through it, or past
+ * its corners, has a way around.  Only when they fall into separate pieces
+ * is each piece flood filled from its side of the cell, a little of each
+ * piece in turn, until the fills meet or one of them runs out of cells.
+ * One that runs out first is a piece of its own now and every cell in it
+ * gets a new label, so a split costs time and memory in proportion to the
+ * smaller side.  When both fills grow past MAX_CELLS cells, the fill gives
+ * up and the labels stay as they were, leaving the question to the
+ * planner.
+ * @author Kevin Dittmar
+ */
+final class Connectivity
+{
+    //The most cells a flood fill visits on each side before giving up.
+    static final int MAX_CELLS = 1 << 14;
+    
+    //How a flood fill between two pieces ended.
+    private static final int MET = 0;
+    private static final int FIRST_CLOSED = 1;
+    private static final int SECOND_CLOSED = 2;
+    private static final int GAVE_UP = 3;
+    
+    //The label of every cell that hasn't been given another.
+    private static final int UNSPLIT = 0;
+    
+    private final SearchState world;
+    
+    /* The cells that have been given another label, and for every label
+     * that has been joined to another, the label it was joined to.
+     */
+    private final CellMap relabelled;
+    private final CellMap parents;
+    
+    //The next label to give a new piece.
+    private int next_label;
+    
+    //The flood fills from either side of a blocked cell.
+    private final CellSet first;
+    private final CellSet second;
+    
+    //Scratch space for finding the neighbors of a cell.
+    private final int[] neighbors;
+    private final int[] around;
+    private final int[] ring;
+    private final int[] labels;
+    private final int[] pieces;
+    
+    /**
+     * @param world is what the robot believes about the map.
+     */
+    Connectivity(SearchState world)
+    {
+        this.world = world;
+        relabelled = new CellMap();
+        parents = new CellMap();
+        next_label = UNSPLIT + 1;
+        first = new CellSet();
+        second = new CellSet();
+        neighbors = new int[Grid.DIRECTIONS];
+        around = new int[Grid.DIRECTIONS];
+        ring = new int[Grid.DIRECTIONS];
+        labels = new int[Grid.DIRECTIONS];
+        pieces = new int[Grid.DIRECTIONS];
+    }
+    
+    /**
+     * Forget every piece split off or joined, e.g. when a plan from scratch
+     * forgets every discovered cell.
+     */
+    void reset()
+    {
+        relabelled.clear();
+        parents.clear();
+        next_label = UNSPLIT + 1;
+    }
+    
+    /**
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the robot is known to be walled off from the goal.
+     * False only means that it isn't known.
+     */
+    boolean isCutOff(int robot, int goal)
+    {
+        if (!isOpen(robot))
+        {
+            return false;
+        }
+        return !isOpen(goal) || find(robot) != find(goal);
+    }
+    
+    /**
+     * Split the piece that a cell that the world now believes is BLOCKED
+     * was in, if the cell held it together.
+     * @param cell is the cell that was just blocked.
+     */
+    void blocked(int cell)
+    {
+        int count = findPieces(cell);
+        int a = pieces[0];
+        for (int j = 1; j < count; j++)
+        {
+            int result = fill(a, pieces[j]);
+            if (result == FIRST_CLOSED)
+            {
+                split(first);
+                
+                //The rest of the pieces might still be split.
+                a = pieces[j];
+            }
+            else if (result == SECOND_CLOSED)
+            {
+                split(second);
+            }
+        }
+    }
+    
+    /**
+     * Join the pieces around a cell that the world now believes is open.
+     * @param cell is the cell that was just cleared.
+     */
+    void cleared(int cell)
+    {
+        int root = Grid.NO_CELL;
+        world.getNeighbors(cell, neighbors);
+        for (int d = 0; d < Grid.DIRECTIONS; d++)
+        {
+            int y = neighbors[d];
+            if (y != Grid.NO_CELL &&
+                world.cost(cell, y, d) < CostScale.INFINITY)
+            {
+                int other = find(y);
+                if (root == Grid.NO_CELL)
+                {
+                    root = other;
+                }
+                else if (other != root)
+                {
+                    parents.put(other, root);
+                }
+            }
+        }
+        relabelled.put(cell, root != Grid.NO_CELL ? root : next_label++);
+    }
+    
+    /**
+     * @param cell is the index of an open cell.
+     * @return the label of the piece that the cell is in now.
+     */
+    private int find(int cell)
+    {
+        int label = relabelled.get(cell, UNSPLIT);
+        int root = label;
+        for (int up = parents.get(root, -1); up >= 0;
+             up = parents.get(root, -1))
+        {
+            root = up;
+        }
+        
+        //Point every label on the way straight at the root.
+        while (label != root)
+        {
+            int up = parents.get(label, -1);
+            parents.put(label, root);
+            label = up;
+        }
+        return root;
+    }
+    
+    /**
+     * Give every cell of a piece that has just been split off a new label.
+     * @param piece is every cell of the piece.
+     */
+    private void split(CellSet piece)
+    {
+        int label = next_label++;
+        for (int i = 0; i < piece.size(); i++)
+        {
+            relabelled.put(piece.get(i), label);
+        }
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return true if the robot believes that the cell is open.
+     */
+    private boolean isOpen(int cell)
+    {
+        return !world.isBlocked(cell);
+    }
+    
+    /**
+     * Sort the open neighbors of a cell into the pieces that are connected
+     * to each other without going through the cell.
+     * @param cell is the index of a blocked cell.
+     * @return the number of pieces, with one cell from each in pieces.
+     */
+    private int findPieces(int cell)
+    {
+        world.getNeighbors(cell, neighbors);
+        int open = 0;
+        for (int d = 0; d < Grid.DIRECTIONS; d++)
+        {
+            if (neighbors[d] != Grid.NO_CELL && isOpen(neighbors[d]))
+            {
+                ring[open++] = neighbors[d];
+            }
+        }
+        
+        //Two open neighbors touch if the robot can move between them.
+        for (int i = 0; i < open; i++)
+        {
+            labels[i] = i;
+        }
+        for (int i = 0; i < open; i++)
+        {
+            for (int k = i + 1; k < open; k++)
+            {
+                if (labels[k] != labels[i] && isAdjacent(ring[i], ring[k]))
+                {
+                    relabel(open, labels[k], labels[i]);
+                }
+            }
+        }
+        int count = 0;
+        for (int i = 0; i < open; i++)
+        {
+            if (labels[i] == i)
+            {
+                pieces[count++] = ring[i];
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Join two pieces of the open neighbors of a cell.
+     * @param open is the number of open neighbors.
+     * @param from is the label of one piece.
+     * @param to is the label of the other, which the first one takes.
+     */
+    private void relabel(int open, int from, int to)
+    {
+        for (int i = 0; i < open; i++)
+        {
+            if (labels[i] == from)
+            {
+                labels[i] = to;
+            }
+        }
+    }
+    
+    /**
+     * @param a is the index of an open cell.
+     * @param b is the index of another open cell.
+     * @return true if the robot can move between the cells in one step.
+     */
+    private boolean isAdjacent(int a, int b)
+    {
+        world.getNeighbors(a, around);
+        for (int d = 0; d < Grid.DIRECTIONS; d++)
+        {
+            if (around[d] == b)
+            {
+                return world.cost(a, b, d) < CostScale.INFINITY;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Flood fill the open cells from two cells, a cell from each side in
+     * turn, until the fills meet or one of them has no more cells to fill.
+     * @param a is the index of a cell on one side.
+     * @param b is the index of a cell on the other side.
+     * @return MET, FIRST_CLOSED if a's fill ran out of cells,
+     * SECOND_CLOSED if b's did, or GAVE_UP if both grew too large.
+     */
+    private int fill(int a, int b)
+    {
+        first.clear();
+        second.clear();
+        first.add(a);
+        second.add(b);
+        int first_head = 0;
+        int second_head = 0;
+        while (true)
+        {
+            if (first_head == first.size())
+            {
+                return FIRST_CLOSED;
+            }
+            if (second_head == second.size())
+            {
+                return SECOND_CLOSED;
+            }
+            if (first.size() > MAX_CELLS && second.size() > MAX_CELLS)
+            {
+                return GAVE_UP;
+            }
+            if (spread(first, first.get(first_head++), second) ||
+                spread(second, second.get(second_head++), first))
+            {
+                return MET;
+            }
+        }
+    }
+    
+    /**
+     * Add the neighbors that the robot can move to from a cell to a flood
+     * fill.
+     * @param fill is the flood fill.
+     * @param cell is an open cell in the fill.
+     * @param other is the flood fill from the other side.
+     * @return true if one of the neighbors is in the other fill.
+     */
+    private boolean spread(CellSet fill, int cell, CellSet other)
+    {
+        world.getNeighbors(cell, neighbors);
+        for (int d = 0; d < Grid.DIRECTIONS; d++)
+        {
+            int y = neighbors[d];
+            if (y != Grid.NO_CELL &&
+                world.cost(cell, y, d) < CostScale.INFINITY)
+            {
+                if (other.contains(y))
+                {
+                    return true;
+                }
+                fill.add(y);
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * A set of cells in the order that they were added, kept in an open
+     * addressing hash table so that it costs the same on any size of map.
+     */
+    private static final class CellSet
+    {
+        private int[] table;
+        private int[] cells;
+        private int size;
+        
+        /**
+         * Create an empty set.
+         */
+        CellSet()
+        {
+            table = new int[64];
+            cells = new int[32];
+        }
+        
+        /**
+         * @return the number of cells in the set.
+         */
+        int size()
+        {
+            return size;
+        }
+        
+        /**
+         * @param i is the position of a cell in the order they were added.
+         * @return the cell.
+         */
+        int get(int i)
+        {
+            return cells[i];
+        }
+        
+        /**
+         * @param cell is the index of a cell.
+         * @return true if the cell is in the set.
+         */
+        boolean contains(int cell)
+        {
+            int mask = table.length - 1;
+            for (int slot = hash(cell) & mask; table[slot] != 0;
+                 slot = (slot + 1) & mask)
+            {
+                if (table[slot] == cell + 1)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /**
+         * @param cell is the index of a cell to add to the set.
+         */
+        void add(int cell)
+        {
+            int mask = table.length - 1;
+            int slot = hash(cell) & mask;
+            while (table[slot] != 0)
+            {
+                if (table[slot] == cell + 1)
+                {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            //Empty slots hold 0, so every cell is stored plus 1.
+            table[slot] = cell + 1;
+            if (size == cells.length)
+            {
+                cells = Arrays.copyOf(cells, size * 2);
+            }
+            cells[size++] = cell;
+            if (size * 2 > table.length)
+            {
+                grow();
+            }
+        }
+        
+        /**
+         * Double the size of the hash table.
+         */
+        private void grow()
+        {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int i = 0; i < size; i++)
+            {
+                int slot = hash(cells[i]) & mask;
+                while (table[slot] != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = cells[i] + 1;
+            }
+        }
+        
+        /**
+         * Empty the set, in time proportional to its size.
+         */
+        void clear()
+        {
+            //Find every cell's slot before emptying any of them.
+            int mask = table.length - 1;
+            for (int i = 0; i < size; i++)
+            {
+                int slot = hash(cells[i]) & mask;
+                while (table[slot] != cells[i] + 1)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                cells[i] = slot;
+            }
+            for (int i = 0; i < size; i++)
+            {
+                table[cells[i]] = 0;
+            }
+            size = 0;
+        }
+        
+        /**
+         * @param cell is the index of a cell.
+         * @return the cell's bits mixed, so that neighboring cells spread
+         * across the table.
+         */
+        private static int hash(int cell)
+        {
+            int h = cell * 0x9E3779B9;
+            return h ^ h >>> 16;
+        }
+    }
+    
+    /**
+     * A map from cells, or labels, to labels, kept in an open addressing
+     * hash table like CellSet so that it costs the same on any size of map.
+     */
+    private static final class CellMap
+    {
+        private int[] keys;
+        private int[] values;
+        
+        //The slot of every key, in the order they were added.
+        private int[] slots;
+        private int size;
+        
+        /**
+         * Create an empty map.
+         */
+        CellMap()
+        {
+            keys = new int[64];
+            values = new int[64];
+            slots = new int[32];
+        }
+        
+        /**
+         * @param key is a cell or a label, at least 0.
+         * @param missing is what to return if the key isn't in the map.
+         * @return the value for the key, or missing.
+         */
+        int get(int key, int missing)
+        {
+            int mask = keys.length - 1;
+            for (int slot = CellSet.hash(key) & mask; keys[slot] != 0;
+                 slot = (slot + 1) & mask)
+            {
+                if (keys[slot] == key + 1)
+                {
+                    return values[slot];
+                }
+            }
+            return missing;
+        }
+        
+        /**
+         * @param key is a cell or a label, at least 0.
+         * @param value is the value for the key from now on.
+         */
+        void put(int key, int value)
+        {
+            int mask = keys.length - 1;
+            int slot = CellSet.hash(key) & mask;
+            while (keys[slot] != 0)
+            {
+                if (keys[slot] == key + 1)
+                {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            //Empty slots hold 0, so every key is stored plus 1.
+            keys[slot] = key + 1;
+            values[slot] = value;
+            if (size == slots.length)
+            {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+            if (size * 2 > keys.length)
+            {
+                grow();
+            }
+        }
+        
+        /**
+         * Double the size of the hash table.
+         */
+        private void grow()
+        {
+            int[] old_keys = keys;
+            int[] old_values = values;
+            keys = new int[old_keys.length * 2];
+            values = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < size; i++)
+            {
+                int key = old_keys[slots[i]];
+                int slot = CellSet.hash(key - 1) & mask;
+                while (keys[slot] != 0)
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = old_values[slots[i]];
+                slots[i] = slot;
+            }
+        }
+        
+        /**
+         * Empty the map, in time proportional to its size.
+         */
+        void clear()
+        {
+            for (int i = 0; i < size; i++)
+            {
+                keys[slots[i]] = 0;
+            }
+            size = 0;
+        }
+    }
+}
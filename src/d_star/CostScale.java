@@ -0,0 +1,115 @@
+package d_star;
+
+/**
+ * How path costs are stored: as integers counting fixed fractions of a
+ * straight move, so that adding and comparing costs is exact.  A diagonal
+ * move costs about the square root of two straight moves, rounded to the
+ * scale's precision.
+ *
+ * An infinite cost is INFINITY, which adding to never changes, so a cost
+ * can never overflow into a finite one, however long the path.  Costs are
+ * displayed as floats counting straight moves, with INFINITY displayed as
+ * Node.INFINITY as it always has been.
+ * @author Kevin Dittmar
+ */
+public enum CostScale
+{
+    /**
+     * Tenths of a straight move: a straight move costs 1.0 and a diagonal
+     * move costs 1.4.  This is the default.
+     */
+    TENTHS(10, 14),
+    
+    /**
+     * Thousandths of a straight move: a straight move costs 1.000 and a
+     * diagonal move costs 1.414.
+     */
+    THOUSANDTHS(1000, 1414);
+    
+    //An infinite cost.
+    static final int INFINITY = Integer.MAX_VALUE;
+    
+    private final int straight;
+    private final int diagonal;
+    
+    /**
+     * @param straight is the cost of a straight move.
+     * @param diagonal is the cost of a diagonal move.
+     */
+    CostScale(int straight, int diagonal)
+    {
+        this.straight = straight;
+        this.diagonal = diagonal;
+    }
+    
+    /**
+     * @return the cost of a straight move.
+     */
+    public int getStraight()
+    {
+        return straight;
+    }
+    
+    /**
+     * @return the cost of a diagonal move.
+     */
+    public int getDiagonal()
+    {
+        return diagonal;
+    }
+    
+    /**
+     * Weight the cost of a single move between two neighboring cells by
+     * the average weight of the two cells.
+     * @param move is the cost of the move over open ground, which is even.
+     * @param from is the type of one cell.
+     * @param to is the type of the other cell.
+     * @return the cost of the move, or INFINITY if either cell is BLOCKED.
+     */
+    static int weigh(int move, char from, char to)
+    {
+        if (from == Node.BLOCKED || to == Node.BLOCKED)
+        {
+            return INFINITY;
+        }
+        //Move costs are even, so halving is exact.
+        return move * (Node.weight(from) + Node.weight(to)) / 2;
+    }
+    
+    /**
+     * Add two costs, giving INFINITY if either is INFINITY or if the sum
+     * is too big to store.
+     * @param cost is a cost, at least 0.
+     * @param other is another cost, at least 0.
+     * @return the sum of the costs.
+     */
+    static int add(int cost, int other)
+    {
+        long sum = (long)cost + other;
+        return sum >= INFINITY ? INFINITY : (int)sum;
+    }
+    
+    /**
+     * @param cost is a cost in this scale.
+     * @return the cost as it has always been displayed: a float counting
+     * straight moves, or Node.INFINITY if it is INFINITY.
+     */
+    float toFloat(int cost)
+    {
+        return cost == INFINITY ? Node.INFINITY : (float)cost / straight;
+    }
+    
+    /**
+     * @param value is a cost as displayed by toFloat.
+     * @return the nearest cost in this scale.
+     */
+    int fromFloat(float value)
+    {
+        if (value == Node.INFINITY)
+        {
+            return INFINITY;
+        }
+        return (int)Math.min(Math.round((double)value * straight),
+                             (long)INFINITY);
+    }
+}
@@ -0,0 +1,638 @@
+package d_star;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * D* Lite implementation based on Sven Koenig and Maxim Likhachev's
+ * algorithm from their 2002 paper D* Lite.  Like D*, it searches backwards
+ * from the goal so that the robot can keep its search when it moves or
+ * finds that cells changed, but it keeps two estimates per state, g and
+ * rhs, and only processes states whose estimates disagree.  That usually
+ * means far fewer states are processed again after a change.
+ *
+ * The search state is kept in a SearchState so that every trace mode works
+ * the same way as it does for D_Star: h holds g, k holds rhs, and b points
+ * to the neighbor that rhs came from.  A NEW state has g = rhs = INFINITY.
+ * @author Kevin Dittmar
+ */
+public class DStarLite implements Planner
+{
+    private final Grid grid;
+    private final CostScale scale;
+    private final SearchState world;
+    
+    //Answers the robot's questions about the way to the goal.
+    private final Guide guide;
+    private final ArrayList<Integer> path;
+    
+    private final OpenList open_list;
+    
+    private int robot;
+    private int goal;
+    
+    /* Where the robot was at the last replan, and the sum of the distances
+     * it has moved between replans, which is added to every new key so
+     * that keys computed before the robot moved stay comparable.
+     */
+    private int last_robot;
+    private int key_modifier;
+    
+    //Scratch space for finding the neighbors of a state.
+    private final int[] neighbors;
+    private final int[] update_neighbors;
+    
+    //How much of the planner's progress execute writes to its output file.
+    private TraceMode trace_mode;
+    
+    //Records every step while execute is running.
+    private Trace trace;
+    
+    //The number of states processed since the last call to plan.
+    private int expansions;
+    
+    //Receives the planner's metrics, or null if they aren't being kept.
+    private PlannerMetrics metrics;
+    
+    /**
+     * Plan over an already loaded map with costs in CostScale.TENTHS.  The
+     * map is only read, never changed, so it can be loaded once and shared
+     * by many planners.
+     * @param grid is the map of the world to use.
+     */
+    public DStarLite(Grid grid)
+    {
+        this(grid, CostScale.TENTHS);
+    }
+    
+    /**
+     * Plan over an already loaded map with moves to all eight neighbors.
+     * @param grid is the map of the world to use.
+     * @param scale is the scale of every path cost.
+     */
+    public DStarLite(Grid grid, CostScale scale)
+    {
+        this(grid, scale, Neighborhood.EIGHT);
+    }
+    
+    /**
+     * Plan over an already loaded map.
+     * @param grid is the map of the world to use.
+     * @param scale is the scale of every path cost.
+     * @param neighborhood is the moves that the robot can make.
+     */
+    public DStarLite(Grid grid, CostScale scale, Neighborhood neighborhood)
+    {
+        this.grid = grid;
+        this.scale = scale;
+        world = new SearchState(grid, scale, neighborhood);
+        guide = new Guide(grid, world);
+        open_list = new OpenList(grid);
+        path = new ArrayList<>();
+        neighbors = new int[Grid.DIRECTIONS];
+        update_neighbors = new int[Grid.DIRECTIONS];
+        trace_mode = TraceMode.FULL;
+        trace = Trace.OFF;
+        robot = grid.getStart();
+        goal = grid.getGoal();
+    }
+    
+    /**
+     * @return the map that this DStarLite plans over.
+     */
+    @Override
+    public Grid getGrid()
+    {
+        return grid;
+    }
+    
+    /**
+     * Get a Node view of a cell, showing what the last search found there.
+     * The Node's h is the cell's g and its k is the cell's rhs.
+     * @param row is the row of the cell.
+     * @param col is the column of the cell.
+     * @return the Node for the cell, or null if it is outside of the world.
+     */
+    @Override
+    public Node getNode(int row, int col)
+    {
+        return world.getNode(grid.index(row, col));
+    }
+    
+    /**
+     * @return the cells that the robot moved through during the last call
+     * to execute, starting with the start cell and, if the goal was
+     * reached, ending with the goal.
+     */
+    @Override
+    public int[] getPath()
+    {
+        int[] result = new int[path.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = path.get(i);
+        }
+        return result;
+    }
+    
+    /**
+     * Choose how much of the planner's progress execute writes to its
+     * output file.  The default is TraceMode.FULL.
+     * @param trace_mode is the new trace mode.
+     */
+    @Override
+    public void setTraceMode(TraceMode trace_mode)
+    {
+        this.trace_mode = trace_mode;
+    }
+    
+    /**
+     * Give the robot a sensor, so that after every move execute reports
+     * every hidden obstacle the sensor can see as one batch to updateCells.
+     * Without one, the robot only finds an obstacle when it tries to move
+     * onto it.  The default is none.
+     * @param sensor is the robot's sensor, or null for none.
+     */
+    @Override
+    public void setSensor(Sensor sensor)
+    {
+        guide.setSensor(sensor);
+    }
+    
+    /**
+     * Start or stop keeping metrics.  While this DStarLite has no metrics,
+     * the only cost is a null check per event.
+     * @param metrics receives the metrics from now on, or null to stop
+     * keeping them.
+     */
+    @Override
+    public void setMetrics(PlannerMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * @return the number of states processed since the last call to plan or
+     * execute began, including any replanning since.
+     */
+    @Override
+    public int getExpansions()
+    {
+        return expansions;
+    }
+    
+    /**
+     * @param x is the index of a cell.
+     * @return g(x), the cost of the path from x to the goal that the search
+     * has settled on.
+     */
+    private int g(int x)
+    {
+        return world.getState(x) == Node.NEW ? CostScale.INFINITY :
+                                               world.getH(x);
+    }
+    
+    /**
+     * @param x is the index of a cell.
+     * @return rhs(x), the cost of the best path from x to the goal through
+     * one of x's neighbors, based on their g values.
+     */
+    private int rhs(int x)
+    {
+        return world.getState(x) == Node.NEW ? CostScale.INFINITY :
+                                               world.getK(x);
+    }
+    
+    /**
+     * Give a NEW cell g = rhs = INFINITY so that it can be written.
+     * @param x is the index of a cell.
+     */
+    private void touch(int x)
+    {
+        if (world.getState(x) == Node.NEW)
+        {
+            world.setH(x, CostScale.INFINITY);
+            world.setK(x, CostScale.INFINITY);
+            world.setState(x, Node.CLOSED);
+        }
+    }
+    
+    /**
+     * Find the cost to travel between cell x and its neighbor y.
+     * @param x is the perspective cell
+     * @param y is the neighbor cell
+     * @param direction is the direction from x to y, one of the
+     * Grid.DIRECTIONS directions.
+     * @return the cost to travel from x to y.
+     */
+    private int cost(int x, int y, int direction)
+    {
+        return world.cost(x, y, direction);
+    }
+    
+    /**
+     * @param x is the index of a cell.
+     * @return the primary key that orders x on the open list: the least
+     * possible cost of a path from the robot through x to the goal.  The
+     * secondary key is min(g(x), rhs(x)).
+     */
+    private int key(int x)
+    {
+        return CostScale.add(Math.min(g(x), rhs(x)),
+                             CostScale.add(world.distance(robot, x),
+                                           key_modifier));
+    }
+    
+    /**
+     * Recompute rhs(x) from its neighbors and put x on the open list if g(x)
+     * and rhs(x) disagree, or take it off if they agree.
+     * @param x is the index of a cell.
+     */
+    private void updateVertex(int x)
+    {
+        int state = world.getState(x);
+        touch(x);
+        if (x != goal)
+        {
+            int rhs = CostScale.INFINITY;
+            int b = Grid.NO_CELL;
+            world.getNeighbors(x, update_neighbors);
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
+            {
+                int y = update_neighbors[d];
+                if (y != Grid.NO_CELL)
+                {
+                    int through_y = CostScale.add(cost(x, y, d), g(y));
+                    if (through_y < rhs)
+                    {
+                        rhs = through_y;
+                        b = y;
+                    }
+                }
+            }
+            world.setK(x, rhs);
+            world.setBackpointer(x, rhs < CostScale.INFINITY ? b :
+                                                              Grid.NO_CELL);
+        }
+        
+        if (g(x) != rhs(x))
+        {
+            world.setState(x, Node.OPEN);
+            open_list.insert(x, key(x), Math.min(g(x), rhs(x)), 0);
+            if (metrics != null)
+            {
+                metrics.inserted(state, open_list.size());
+            }
+        }
+        else
+        {
+            world.setState(x, Node.CLOSED);
+            open_list.remove(x);
+        }
+    }
+    
+    /**
+     * @return true if the first key on the open list comes before the
+     * robot's key, or the robot's g and rhs still disagree, so the robot's
+     * g isn't known to be correct yet.
+     */
+    private boolean isRobotInconsistent()
+    {
+        if (open_list.isEmpty())
+        {
+            return false;
+        }
+        int robot_rhs = rhs(robot);
+        if (g(robot) != robot_rhs)
+        {
+            return true;
+        }
+        int key = key(robot);
+        return open_list.peekKey() < key ||
+               (open_list.peekKey() == key &&
+                open_list.peekSecondKey() < Math.min(g(robot), robot_rhs));
+    }
+    
+    /**
+     * Process states until the robot's g is correct.
+     * @throws IOException if the trace can't be written.
+     */
+    private void computeShortestPath() throws IOException
+    {
+        while (isRobotInconsistent())
+        {
+            int x = open_list.peek();
+            int old_key = open_list.peekKey();
+            int new_key = key(x);
+            if (old_key < new_key)
+            {
+                //The key was computed before the robot moved.
+                open_list.insert(x, new_key, Math.min(g(x), rhs(x)), 0);
+                continue;
+            }
+            expansions++;
+            if (metrics != null)
+            {
+                //An underconsistent state is D* Lite's RAISE state.
+                metrics.processed(g(x) < rhs(x));
+            }
+            
+            world.getNeighbors(x, neighbors);
+            if (g(x) > rhs(x))
+            {
+                //Overconsistent: x has a cheaper path now, so settle it.
+                world.setH(x, rhs(x));
+                world.setState(x, Node.CLOSED);
+                open_list.remove(x);
+            }
+            else
+            {
+                //Underconsistent: x's path got more expensive.
+                world.setH(x, CostScale.INFINITY);
+                updateVertex(x);
+            }
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
+            {
+                if (neighbors[d] != Grid.NO_CELL)
+                {
+                    updateVertex(neighbors[d]);
+                }
+            }
+            
+            //Add the newly processed world to the output file.
+            trace.write(robot);
+        }
+    }
+    
+    /**
+     * Plan a path from the given start to the given goal without moving the
+     * robot.  Everything learned by earlier plans, including discovered
+     * blocked cells, is forgotten first, so the same DStarLite can be used
+     * for any number of start and goal pairs.
+     * @param start is the cell where the robot is.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if there is a path from start to goal.
+     * @throws IOException if the trace can't be written.
+     */
+    @Override
+    public boolean plan(int start, int goal) throws IOException
+    {
+        long start_time = metrics != null ? System.nanoTime() : 0;
+        world.reset();
+        guide.reset();
+        open_list.clear();
+        robot = start;
+        last_robot = start;
+        this.goal = goal;
+        key_modifier = 0;
+        expansions = 0;
+        
+        //The goal is the only state known to have a path to the goal.
+        touch(goal);
+        world.setK(goal, 0);
+        updateVertex(goal);
+        
+        //Add starting world to the output file.
+        trace.write(robot);
+        
+        computeShortestPath();
+        if (metrics != null)
+        {
+            metrics.planFinished(System.nanoTime() - start_time,
+                                 world.getTouchedCount());
+        }
+        return g(robot) < CostScale.INFINITY;
+    }
+    
+    /**
+     * Tell the planner that the robot has moved.
+     * @param cell is the cell that the robot now occupies.
+     */
+    @Override
+    public void setRobot(int cell)
+    {
+        robot = cell;
+    }
+    
+    /**
+     * @return the cell that the robot should move to next, or Grid.NO_CELL
+     * if it doesn't have one.
+     */
+    @Override
+    public int getNextStep()
+    {
+        return guide.getNextStep(robot, goal);
+    }
+    
+    /**
+     * Get every cell of the path that the planner plans for the robot now.
+     * The path is cached, and only walked again when a backpointer on it
+     * changes or the robot leaves it, so it is cheap to ask for every tick.
+     * @return the cells from the robot to the goal, both included, or an
+     * empty array if there is no path.  The array mustn't be changed.
+     */
+    @Override
+    public int[] getPlannedPath()
+    {
+        return guide.getPlannedPath(robot, goal);
+    }
+    
+    /**
+     * Get the planned path smoothed into any-angle waypoints, each joined
+     * to the next by a straight line that crosses no known obstacle and no
+     * heavier ground than the part of the path that it replaces.
+     * @return the waypoints from the robot to the goal, both included, or
+     * an empty array if there is no path.  The array mustn't be changed.
+     */
+    @Override
+    public int[] getSmoothedPath()
+    {
+        return guide.getSmoothedPath(robot, goal);
+    }
+    
+    /**
+     * Apply a batch of cell changes reported by the robot's sensors, then
+     * replan until the robot's g is correct again.  Every state next to a
+     * change has its rhs recomputed before any state is processed, so a
+     * whole sweep of changes costs a single replan.
+     * @param batch is the cells that changed since the last update.
+     * @return true if there is still a path from the robot to the goal.
+     * @throws IOException if the trace can't be written.
+     */
+    @Override
+    public boolean updateCells(Iterable<CellUpdate> batch) throws IOException
+    {
+        long start_time = metrics != null ? System.nanoTime() : 0;
+        
+        //Every key on the open list was computed for where the robot was.
+        key_modifier = CostScale.add(key_modifier,
+                                     world.distance(last_robot, robot));
+        last_robot = robot;
+        
+        for (CellUpdate update : batch)
+        {
+            int cell = update.getCell();
+            char old_type = world.getType(cell);
+            if (old_type == update.getType())
+            {
+                continue;
+            }
+            world.setType(cell, update.getType());
+            guide.changed(cell, old_type);
+            
+            //The edges between the cell and its neighbors changed cost.
+            updateVertex(cell);
+            world.getNeighbors(cell, neighbors);
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
+            {
+                if (neighbors[d] != Grid.NO_CELL)
+                {
+                    updateVertex(neighbors[d]);
+                }
+            }
+        }
+        
+        //Behind a wall around the robot or the goal, nothing can change.
+        boolean cut_off = guide.isCutOff(robot, goal);
+        if (!cut_off)
+        {
+            computeShortestPath();
+        }
+        if (metrics != null)
+        {
+            metrics.replanFinished(System.nanoTime() - start_time,
+                                   world.getTouchedCount());
+        }
+        return !cut_off && g(robot) < CostScale.INFINITY;
+    }
+    
+    /**
+     * Do the D* Lite pathing algorithm from the map's start to its goal.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     */
+    @Override
+    public boolean execute()
+    {
+        return execute(grid.getStart(), grid.getGoal());
+    }
+    
+    /**
+     * Do the D* Lite pathing algorithm from the given start to the given
+     * goal: plan, then move the robot along the backpointers to the goal,
+     * replanning whenever it finds its next cell blocked.  Each step is
+     * written to the output file for the current trace mode.
+     * @param start is the cell where the robot starts.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     */
+    @Override
+    public boolean execute(int start, int goal)
+    {
+        path.clear();
+        
+        boolean reached_goal = false;
+        try
+        {
+            //Allocate a file for output.
+            trace = trace_mode.open(world);
+            try
+            {
+                reached_goal = traverse(start, goal);
+            }
+            finally
+            {
+                trace.close();
+                trace = Trace.OFF;
+            }
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(DStarLite.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+        
+        if (!reached_goal)
+        {
+            System.err.println("No possible path.");
+        }
+        return reached_goal;
+    }
+    
+    /**
+     * Plan from the goal, then move the robot along the backpointers to the
+     * goal, replanning whenever it finds its next cell blocked.
+     * @param start is the cell where the robot starts.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     * @throws IOException if the trace can't be written.
+     */
+    private boolean traverse(int start, int goal) throws IOException
+    {
+        path.add(start);
+        
+        if (!plan(start, goal) || !guide.sense(this, robot))
+        {
+            return false;
+        }
+        
+        while (robot != goal)
+        {
+            int next = getNextStep();
+            if (next == Grid.NO_CELL)
+            {
+                return false;
+            }
+            if (world.getType(next) != Node.BLOCKED &&
+                world.getType(next) != Node.UNKNOWN_BLOCKED)
+            {
+                setRobot(next);
+                path.add(robot);
+                
+                //Add the updated world to the output file.
+                trace.write(robot);
+                if (!guide.sense(this, robot))
+                {
+                    return false;
+                }
+            }
+            //The robot found its next cell blocked, so find a new path.
+            else if (!updateCells(
+                          Collections.singletonList(CellUpdate.blocked(next))))
+            {
+                return false;
+            }
+        }
+        
+        //Print the path up to the goal.
+        grid.printPath(getPath());
+        return true;
+    }
+    
+    /**
+     * @param args the command line arguments
+     */
+    public static void main(String[] args)
+    {
+        try
+        {
+            Grid grid = MapLoader.load(new File(
+                args.length > 0 ? args[0] : "map3.txt"));
+            if (!new DStarLite(grid).execute())
+            {
+                System.exit(1);
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
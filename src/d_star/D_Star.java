@@ -1,161 +1,337 @@
 package d_star;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * D* implementation based on Anthony Stentz's algorithm from his 1994 paper
- * Optimal and Efficient Path Planning for Partially-Known Environments
+ * Optimal and Efficient Path Planning for Partially-Known Environments.
+ * It can also run as Focused D*, from his 1995 paper The Focussed D*
+ * Algorithm for Real-Time Replanning, which orders the open list by an
+ * estimate of the cost of a path through each state to the robot instead
+ * of by k alone, so that it expands fewer states away from the robot.
+ *
+ * A D_Star can also plan in ticks of bounded work for a robot's control
+ * loop: with a budget set, plan, updateCells and execute process at most
+ * the budget's states or time per call, and resume carries on from where
+ * the last tick stopped.  Focused D* can additionally inflate its
+ * heuristic, as in Likhachev et al.'s 2005 paper Anytime Dynamic A*, to
+ * find a quick path that may cost more than the cheapest, then lower the
+ * inflation a step at every later tick until the path is the cheapest.
+ *
+ * The first plan on a big map can also be made on many threads at once:
+ * with a pool set, plan finds the robot's cheapest path with a Wavefront
+ * and sets up the same h, backpointers and open list that processing
+ * states one at a time would have, and replanning carries on from there
+ * one state at a time as usual.
  * @author Kevin Dittmar
  */
-public class D_Star
+public class D_Star implements Planner
 {
-//    private final ArrayList<Node[]> world;
-    private final ArrayList<Node> world;
-    private final ArrayList<Node> path;
-    private int rows;
-    private int cols;
+    /* What the search has to finish before the robot's h can be trusted:
+     * nothing, the first plan, a replan after cells changed, or a replan
+     * after the robot found its next cell blocked.
+     */
+    private static final int SETTLED = 0;
+    private static final int PLANNING = 1;
+    private static final int REPLANNING = 2;
+    private static final int BLOCKED = 3;
+    
+    //How much resume lowers the inflation once a path is found.
+    private static final double INFLATION_STEP = 0.5;
+    
+    private final Grid grid;
+    private final CostScale scale;
+    private final SearchState world;
+    
+    //Answers the robot's questions about the way to the goal.
+    private final Guide guide;
+    private final ArrayList<Integer> path;
+    
+    private final OpenList open_list;
+    
+    private int robot;
+    private int goal;
+    
+    /* Scratch space for processState, reused for every expansion so that
+     * processing a state doesn't allocate anything.
+     */
+    private final int[] neighbors;
+    private final int[] costs;
+    
+    //How much of the planner's progress execute writes to its output file.
+    private TraceMode trace_mode;
+    
+    //Records every step while execute is running.
+    private Trace trace;
+    
+    /* Focused D*: whether the open list is focused on the robot, the bias
+     * accumulated by the robot's moves, and the number of moves so far.
+     * Every state on the open list is tagged with the number of moves there
+     * had been when its key was computed.
+     */
+    private boolean focused;
+    private int focus_bias;
+    private int focus_moves;
     
-    private final ArrayList<Node> open_list;
+    /* Anytime Focused D*: the inflation that plan starts with, how much the
+     * distance to the robot is inflated in every key now, and whether the
+     * search is only improving a path that the robot can already follow.
+     */
+    private double initial_inflation;
+    private double inflation;
+    private boolean improving;
+    
+    /* The budget for each tick, 0 for no limit, and when the current tick
+     * runs out of it.
+     */
+    private int max_states;
+    private long max_nanos;
+    private int tick_end;
+    private long tick_deadline;
+    
+    //Runs the first plan on many threads, or null to plan on this one.
+    private ForkJoinPool plan_pool;
+    
+    //What the search has to finish, and the cell found blocked if BLOCKED.
+    private int phase;
+    private int blocked_cell;
+    
+    //The number of states processed since the last call to plan.
+    private int expansions;
     
-    private Node robot;
-    private Node goal;
+    //Receives the planner's metrics, or null if they aren't being kept.
+    private PlannerMetrics metrics;
     
-    public D_Star(String file_path)
+    /**
+     * Plan over an already loaded map with costs in CostScale.TENTHS.  The
+     * map is only read, never changed, so it can be loaded once and shared
+     * by many planners.
+     * @param grid is the map of the world to use.
+     */
+    public D_Star(Grid grid)
     {
-        world = new ArrayList<>();
-        open_list = new ArrayList<>();
+        this(grid, CostScale.TENTHS);
+    }
+    
+    /**
+     * Plan over an already loaded map with moves to all eight neighbors.
+     * @param grid is the map of the world to use.
+     * @param scale is the scale of every path cost.
+     */
+    public D_Star(Grid grid, CostScale scale)
+    {
+        this(grid, scale, Neighborhood.EIGHT);
+    }
+    
+    /**
+     * Plan over an already loaded map.
+     * @param grid is the map of the world to use.
+     * @param scale is the scale of every path cost.
+     * @param neighborhood is the moves that the robot can make.
+     */
+    public D_Star(Grid grid, CostScale scale, Neighborhood neighborhood)
+    {
+        this.grid = grid;
+        this.scale = scale;
+        world = new SearchState(grid, scale, neighborhood);
+        guide = new Guide(grid, world);
+        open_list = new OpenList(grid);
         path = new ArrayList<>();
-        parseFile(file_path);
+        neighbors = new int[Grid.DIRECTIONS];
+        costs = new int[Grid.DIRECTIONS];
+        trace_mode = TraceMode.FULL;
+        trace = Trace.OFF;
+        robot = grid.getStart();
+        goal = grid.getGoal();
+        initial_inflation = 1.0;
+        inflation = 1.0;
     }
     
     /**
-     * Parse a file for the map of the world to use.
-     * Note:  This method expects a rectangular grid world.
-     * @param file_path the path of the file to parse for world information.
+     * Load the map of the world to use.
+     * @param file_path the path of the map file; see MapLoader for its format.
+     * @throws IOException if the map can't be read or isn't a valid map.
      */
-    private void parseFile(String file_path)
+    public D_Star(String file_path) throws IOException
     {
-        File file = new File(file_path);
-        Scanner scanner;
-        try
-        {
-            scanner = new Scanner(file);
-        
-            while (scanner.hasNextLine())
-            {
-                String next_line = scanner.nextLine();
-                cols = next_line.length();
-                for (int i = 0; i < next_line.length(); i++)
-                {
-                    char type = next_line.charAt(i);
-                    Node node = new Node(rows, i, type);
-                    if (type == Node.START)
-                    {
-                        robot = node;
-                    }
-                    else if (type == Node.GOAL)
-                    {
-                        goal = node;
-                    }
-                    world.add(node);
-                }
-                rows++;
-            }
-        }
-        catch (FileNotFoundException ex)
+        this(load(file_path));
+    }
+    
+    /**
+     * Load a map and report how long it took.
+     * @param file_path the path of the map file.
+     * @return the loaded map.
+     * @throws IOException if the map can't be read or isn't a valid map.
+     */
+    private static Grid load(String file_path) throws IOException
+    {
+        long start_time = System.nanoTime();
+        Grid grid = MapLoader.load(new File(file_path));
+        long load_time = (System.nanoTime() - start_time) / 1000000;
+        System.out.println("DONE PARSING WORLD (" + grid.getRows() + "x" +
+                           grid.getCols() + " in " + load_time + " ms)");
+        return grid;
+    }
+    
+    /**
+     * @return the map that this D_Star plans over.
+     */
+    @Override
+    public Grid getGrid()
+    {
+        return grid;
+    }
+    
+    /**
+     * Get a Node view of a cell, showing what the last search found there.
+     * @param row is the row of the cell.
+     * @param col is the column of the cell.
+     * @return the Node for the cell, or null if it is outside of the world.
+     */
+    @Override
+    public Node getNode(int row, int col)
+    {
+        return world.getNode(grid.index(row, col));
+    }
+    
+    /**
+     * @return the cells that the robot moved through during the last call
+     * to execute, starting with the start cell and, if the goal was
+     * reached, ending with the goal.
+     */
+    @Override
+    public int[] getPath()
+    {
+        int[] result = new int[path.size()];
+        for (int i = 0; i < result.length; i++)
         {
-            Logger.getLogger(D_Star.class.getName()).log(Level.SEVERE,null,ex);
+            result[i] = path.get(i);
         }
-        System.out.println("DONE PARSING WORLD");
+        return result;
+    }
+    
+    /**
+     * Choose how much of the planner's progress execute writes to its
+     * output file.  The default is TraceMode.FULL.
+     * @param trace_mode is the new trace mode.
+     */
+    @Override
+    public void setTraceMode(TraceMode trace_mode)
+    {
+        this.trace_mode = trace_mode;
     }
     
     /**
      * Process the state on the open list with the smallest k value.
      * @return the smallest k value on the open list.
      */
-    private float processState()
+    private int processState()
     {
-        Node x = minState();
-        if (x == null)
+        int x = minState();
+        if (x == Grid.NO_CELL)
         {
             return -1;
         }
-        
-        /* Testing:  Make sure that the current min k is the same as the
-         * proposed min state's k value.
+        /* Inserting x again while looking at its neighbors changes k(x), so
+         * remember the k that x was taken off of the open list with.
          */
-        if (!equals(x.getK(), getKMin()))
+        int k_old = world.getK(x);
+        if (metrics != null)
         {
-            System.err.println("Error: lists out of sync.");
-            System.exit(1);
+            metrics.processed(k_old < world.getH(x));
         }
         delete(x);
-        ArrayList<Node> neighbors = getNeighbors(x);
+        expansions++;
+        
+        //Find every neighbor and the cost of the edge to it just once.
+        world.getNeighbors(x, neighbors);
+        for (int d = 0; d < Grid.DIRECTIONS; d++)
+        {
+            if (neighbors[d] != Grid.NO_CELL)
+            {
+                costs[d] = cost(neighbors[d], x, d);
+            }
+        }
+        
         //RAISE state
-        if (x.getK() < x.getH())
+        if (k_old < world.getH(x))
         {
-            for (Node y : neighbors)
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
             {
-                if (y.getH() < x.getK() &&
-                    x.getH() > y.getH() + cost(y,x))
+                int y = neighbors[d];
+                //NEW states don't have an h yet, so they can't lower x's h.
+                if (y != Grid.NO_CELL && world.getState(y) != Node.NEW &&
+                    world.getH(y) <= k_old &&
+                    world.getH(x) > CostScale.add(world.getH(y), costs[d]))
                 {
-                    x.setBackpointer(y);
-                    x.setH(y.getH() + cost(y,x));
+                    world.setBackpointer(x, y);
+                    world.setH(x, CostScale.add(world.getH(y), costs[d]));
                 }
             }
         }
         
         //LOWER state
-        if (equals(x.getK(), x.getH()))
+        if (k_old == world.getH(x))
         {
-            for (Node y : neighbors)
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
             {
-                if (y.getState() == Node.NEW ||
-                    (x == y.getBackpointer() && 
-                     !equals(y.getH(), x.getH() + cost(x,y))) ||
-                    (x != y.getBackpointer() &&
-                     y.getH() > x.getH() + cost(x,y)))
+                int y = neighbors[d];
+                if (y == Grid.NO_CELL)
                 {
-                    y.setBackpointer(x);
-                    insert(y, x.getH() + cost(x,y));
+                    continue;
+                }
+                int h_new = CostScale.add(world.getH(x), costs[d]);
+                if (world.getState(y) == Node.NEW ||
+                    (x == world.getBackpointer(y) && 
+                     world.getH(y) != h_new) ||
+                    (x != world.getBackpointer(y) &&
+                     world.getH(y) > h_new))
+                {
+                    world.setBackpointer(y, x);
+                    insert(y, h_new);
                 }
             }
         }
         else
         {
-            for (Node y : neighbors)
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
             {
-                if (y.getState() == Node.NEW ||
-                        (y.getBackpointer() == x &&
-                         !equals(y.getH(), x.getH() + cost(x,y)))
+                int y = neighbors[d];
+                if (y == Grid.NO_CELL)
+                {
+                    continue;
+                }
+                int h_new = CostScale.add(world.getH(x), costs[d]);
+                if (world.getState(y) == Node.NEW ||
+                        (world.getBackpointer(y) == x &&
+                         world.getH(y) != h_new)
                     )
                 {
-                    y.setBackpointer(x);
-                    insert(y, x.getH() + cost(x,y));
+                    world.setBackpointer(y, x);
+                    insert(y, h_new);
                 }
                 else
                 {
-                    if (y.getBackpointer() != x &&
-                        y.getH() > x.getH() + cost(x,y))
+                    if (world.getBackpointer(y) != x &&
+                        world.getH(y) > h_new)
                     {
-                        insert(x, x.getH());
+                        insert(x, world.getH(x));
                     }
                     else
                     {
-                        if (y.getBackpointer() != x && 
-                            x.getH() > y.getH() + cost(y,x) &&
-                            y.getState() == Node.CLOSED &&
-                            y.getH() > x.getK())
+                        if (world.getBackpointer(y) != x && 
+                            world.getH(x) >
+                                CostScale.add(world.getH(y), costs[d]) &&
+                            world.getState(y) == Node.CLOSED &&
+                            world.getH(y) > k_old)
                         {
-                            insert(y,y.getH());
+                            insert(y, world.getH(y));
                         }
                     }
                 }
@@ -165,406 +341,882 @@ public class D_Star
     }
     
     /**
-     * Iterate over the open list to find the open state with the smallest
-     * k value.
-     * @return the open state with the smallest k.
+     * Find the open state with the smallest k value, or for Focused D*, the
+     * smallest estimated cost of a path through it to the robot.
+     * @return the open state with the smallest key.
      */
-    private Node minState()
+    private int minState()
     {
-        Node min_state = null;
-        if (open_list.size() > 0)
+        //Focused D*: fix keys computed for an earlier robot position.
+        while (!open_list.isEmpty() && open_list.peekTag() != focus_moves)
         {
-            min_state = open_list.get(0);
+            int x = open_list.peek();
+            open_list.insert(x, key(x), world.getK(x), focus_moves);
         }
-        return min_state;
+        return open_list.peek();
     }
     
     /**
      * Get the minimum k value of all states on
-     * the open list.
-     * @return the minimum k value.
+     * the open list.  For Focused D*, this is the smallest estimated cost
+     * of a path through an open state to the robot, without the bias.
+     * @return the minimum k value, or -1 if the open list is empty.
      */
-    private float getKMin()
+    private int getKMin()
     {
-        float k = -1.0f;
-        if (open_list.size() > 0)
+        int k = -1;
+        if (minState() != Grid.NO_CELL)
         {
-            k = open_list.get(0).getK();
+            k = open_list.peekKey();
+            if (k != CostScale.INFINITY)
+            {
+                k -= focus_bias;
+            }
         }
         return k;
     }
     
-    private void delete(Node x)
+    /**
+     * @param x is a cell with an up-to-date k value.
+     * @return the key that orders x on the open list: k(x), or for Focused
+     * D*, k(x) plus the least possible cost from x to the robot plus the
+     * bias.
+     */
+    private int key(int x)
     {
-        x.setState(Node.CLOSED);
-        open_list.remove(x);
+        int k = world.getK(x);
+        if (focused)
+        {
+            k = CostScale.add(k, CostScale.add(inflate(x, robot), focus_bias));
+        }
+        return k;
     }
-
+    
     /**
-     * Access the single-dimensional ArrayList as if it was
-     * a grid with rows and columns.
-     * @param row is the row of the node to access (0 <= row < rows)
-     * @param col is the column of the node to access (0 <= rows < cols)
-     * @return the Node at the requested row and column, or null if out of
-     * bounds.
+     * @param a is the index of a cell.
+     * @param b is the index of another cell.
+     * @return the least possible cost between the cells, times the current
+     * inflation.
      */
-    private Node getNode(int row, int col)
+    private int inflate(int a, int b)
     {
-        if (row >= 0 && row < rows && col >= 0 && col < cols)
+        int distance = world.distance(a, b);
+        if (inflation == 1.0)
         {
-            return world.get(row * cols + col);
+            return distance;
         }
-        else
+        return (int)Math.min(CostScale.INFINITY, (long)(distance * inflation));
+    }
+    
+    /**
+     * Compute every key on the open list again, for where the robot is now
+     * and the current inflation.
+     */
+    private void rekey()
+    {
+        int[] cells = new int[open_list.size()];
+        for (int i = 0; i < cells.length; i++)
+        {
+            cells[i] = open_list.poll();
+        }
+        focus_bias = 0;
+        focus_moves++;
+        for (int x : cells)
         {
-            return null;
+            open_list.insert(x, key(x), world.getK(x), focus_moves);
         }
     }
     
+    /**
+     * Close cell x and take it off of the open list.
+     * @param x is the cell to remove from the open list.
+     */
+    private void delete(int x)
+    {
+        world.setState(x, Node.CLOSED);
+        open_list.remove(x);
+    }
     
     /**
-     * Update Node x's k value, put it on the open list, and give it the new
+     * Update cell x's k value, put it on the open list, and give it the new
      * h value.
-     * @param x is the Node to be added to the open list.
-     * @param h_new is the h value to be given to Node x.
+     * @param x is the cell to be added to the open list.
+     * @param h_new is the h value to be given to cell x.
      */
-    private void insert(Node x, float h_new)    
+    private void insert(int x, int h_new)    
     {
-        if (x.getState() == Node.NEW)
+        int state = world.getState(x);
+        if (state == Node.NEW)
         {
-            x.setK(h_new);
+            world.setK(x, h_new);
         }
-        else if (x.getState() == Node.OPEN)
+        else if (state == Node.OPEN)
         {
-            x.setK(Math.min(x.getK(), h_new));
+            world.setK(x, Math.min(world.getK(x), h_new));
         }
-        else if (x.getState() == Node.CLOSED)
+        else if (state == Node.CLOSED)
         {
-            x.setK(Math.min(x.getH(), h_new));
+            world.setK(x, Math.min(world.getH(x), h_new));
         }
-        x.setH(h_new);
-        x.setState(Node.OPEN);
+        world.setH(x, h_new);
+        world.setState(x, Node.OPEN);
         
-        //Prevent a node from being added to the open list multiple times.
-        if (!open_list.contains(x))
+        /* Add the cell to the open list, or reposition it if it was already
+         * there and its key changed.
+         */
+        open_list.insert(x, key(x), world.getK(x), focus_moves);
+        if (metrics != null)
         {
-            open_list.add(x);
+            metrics.inserted(state, open_list.size());
         }
-        Collections.sort(open_list);
     }
     
-    /**Gets all neighbors of the node x.
-     * @param x is the node in question.
-     * @return all valid nodes adjacent to x.
+    /**
+     * Find the cost to travel between cell y and its neighbor x.
+     * @param y is the neighbor cell
+     * @param x is the perspective cell
+     * @param direction is the direction from x to y, one of the
+     * Grid.DIRECTIONS directions.
+     * @return the cost to travel from y to x.
+     */
+    private int cost(int y, int x, int direction)
+    {
+        return world.cost(x, y, direction);
+    }
+    
+    /**
+     * Modify the cost Y (the cell that is now blocked) and put X back
+     * on the open list because it turned out that Y was not a clear path.
+     * @param x is the cell where the robot is.
+     * @param y is the blocked cell that the robot thought was clear.
+     * @return the minimum k value on the open list.
      */
-    private ArrayList<Node> getNeighbors(Node x)
+    private int modifyCost(int x, int y)
     {
-        ArrayList<Node> neighbors = new ArrayList<>();
-        int row = x.getRow();
-        int col = x.getCol();
+        //We know that the state is blocked now, so make it blocked.
+        world.setType(y, Node.BLOCKED);
         
-        for (int row_mod = -1; row_mod < 2; row_mod++)
+        /* Put y back on the open list with an infinte cost since it's now
+         * blocked.
+         */
+        insert(y, CostScale.INFINITY);
+        
+        if (world.getState(x) == Node.CLOSED)
+        {
+            //X just got its path blocked, so put it on the OPEN list.
+            insert(x, world.getH(x));
+        }
+        
+        //Without corner cutting, the diagonals past y are now blocked too.
+        Neighborhood neighborhood = world.getNeighborhood();
+        if (neighborhood.hasDiagonals() && !neighborhood.cutsCorners())
         {
-            for (int col_mod = -1; col_mod < 2; col_mod++)
+            world.getNeighbors(y, neighbors);
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
             {
-                Node neighbor = getNode(row + row_mod, col + col_mod);
-                
-                /* Don't add any null nodes (outside of the node table) or
-                 * the node itself to the neighbor list.
-                 */
-                if (neighbor != null && neighbor != x)
+                int z = neighbors[d];
+                if (z != Grid.NO_CELL && world.getState(z) == Node.CLOSED)
                 {
-                    neighbors.add(neighbor);
+                    insert(z, world.getH(z));
                 }
             }
         }
-        return neighbors;
+        return getKMin();
     }
     
     /**
-     * Find the cost to travel from Node y to Node x.
-     * @param y is the neighbor node
-     * @param x is the perspective node
-     * @return the cost to travel from y to x.
-     * Pre:  Nodes y and x must be neighboring nodes that aren't the same node.
+     * Choose between Focused D* and the original, unfocused D*.  The choice
+     * takes effect at the next call to plan or execute.  The default is
+     * unfocused.
+     * @param focused is true to focus the search on the robot.
+     */
+    public void setFocused(boolean focused)
+    {
+        this.focused = focused;
+    }
+    
+    /**
+     * Focused D* only: inflate the distance to the robot in every key by a
+     * factor of at least 1.  The first plan then finds a path sooner that
+     * may cost up to that factor more than the cheapest, and each call to
+     * resume after a path is found lowers the inflation by a step until it
+     * is back to 1 and the path is the cheapest.  The choice takes effect
+     * at the next call to plan or execute.  The default is 1.
+     * @param inflation is how much to inflate the distance to the robot.
+     */
+    public void setInflation(double inflation)
+    {
+        if (!(inflation >= 1.0))
+        {
+            throw new IllegalArgumentException(
+                "The inflation must be at least 1, not " + inflation);
+        }
+        initial_inflation = inflation;
+    }
+    
+    /**
+     * @return how much the distance to the robot is inflated now; the path
+     * is the cheapest once this is 1 and the planner is consistent.
+     */
+    public double getInflation()
+    {
+        return inflation;
+    }
+    
+    /**
+     * Limit the work that plan, updateCells, resume and each step of
+     * execute do per call, so that a big replan can't stall the robot's
+     * control loop.  A call that runs out of budget returns early without
+     * a consistent h for the robot, and resume carries on from there.
+     * @param max_states is the most states to process per call, or 0 for no
+     * limit.
+     * @param max_micros is the most microseconds to spend per call, or 0 for
+     * no limit.  Time is only checked between states.
+     */
+    public void setBudget(int max_states, long max_micros)
+    {
+        if (max_states < 0 || max_micros < 0)
+        {
+            throw new IllegalArgumentException(
+                "A budget can't be negative: " + max_states + " states, " +
+                max_micros + " microseconds");
+        }
+        this.max_states = max_states;
+        max_nanos = max_micros * 1000;
+    }
+    
+    /**
+     * Make every first plan from now on with a Wavefront on the given
+     * pool's threads, which on a big map takes a fraction of the time of
+     * processing states one at a time, or go back to planning on the
+     * calling thread.  A plan made on the pool ignores the budget and the
+     * inflation, since it always finds the cheapest path in one call.
+     * Replanning is unchanged.
+     * @param pool runs the first plan's tiles, or null to plan on the
+     * calling thread.  The default is null.
+     */
+    public void setPlanPool(ForkJoinPool pool)
+    {
+        plan_pool = pool;
+    }
+    
+    /**
+     * @return true if the last plan or replan finished, so the robot's h
+     * is correct for the current inflation, or false if it ran out of
+     * budget and resume has more to do.
+     */
+    public boolean isConsistent()
+    {
+        return phase == SETTLED;
+    }
+    
+    /**
+     * Do one tick of planning within the budget: carry on with a plan or
+     * replan that ran out of budget, or, if there is none and the
+     * inflation is above 1, lower the inflation and start improving the
+     * path.  While the path is only being improved, the robot can keep
+     * following it.
+     * @return true if the robot's h is correct for the current inflation.
+     * @throws IOException if the trace can't be written.
      */
-    float cost(Node y, Node x)
+    public boolean resume() throws IOException
     {
-        if (x.getType() == Node.BLOCKED ||
-            y.getType() == Node.BLOCKED)
+        long start_time = metrics != null ? System.nanoTime() : 0;
+        if (phase == SETTLED && inflation > 1.0)
         {
-            return Node.INFINITY;
+            inflation = Math.max(1.0, inflation - INFLATION_STEP);
+            rekey();
+            phase = REPLANNING;
+            improving = true;
         }
-        //The nodes are vertically or horizontally adjacent
-        else if (x.getRow() - y.getRow() == 0 ||
-                 x.getCol() - y.getCol() == 0)
+        else if (phase == SETTLED)
         {
-            return 1.0f;
+            return true;
         }
-        else
+        boolean settled = work(getKMin());
+        if (metrics != null)
         {
-            return 1.4f;
+            metrics.replanFinished(System.nanoTime() - start_time,
+                                   world.getTouchedCount());
         }
+        return settled;
     }
     
     /**
-     * Modify the cost Y (the node that is now blocked) and put X back
-     * on the open list because it turned out that Y was not a clear path.
-     * @param x is the Node where the robot is.
-     * @param y is the blocked node that the robot thought was clear.
-     * @return the minimum k value on the open list.
+     * Process states until the current phase is finished or the tick's
+     * budget runs out, adding each newly processed world to the output
+     * file.
+     * @param k_min is the minimum k value on the open list.
+     * @return true if the phase finished.
+     * @throws IOException if the trace can't be written.
      */
-    private float modifyCost(Node x, Node y)
+    private boolean work(int k_min) throws IOException
     {
-        //We know that the state is blocked now, so make it blocked.
-        y.blockNode();
-        
-        /* Put y back on the open list with an infinte cost since it's now
-         * blocked.
-         */
-        insert(y, Node.INFINITY);
-        
-        if (x.getState() == Node.CLOSED)
+        tick_end = expansions + max_states;
+        tick_deadline = max_nanos > 0 ? System.nanoTime() + max_nanos : 0;
+        while (!isFinished(k_min))
         {
-            //X just got its path blocked, so put it on the OPEN list.
-            insert(x, x.getH());
+            if (isOverBudget())
+            {
+                return false;
+            }
+            k_min = processState();
+            trace.write(robot);
         }
-        return getKMin();
+        phase = SETTLED;
+        improving = false;
+        return true;
     }
     
     /**
-     * Test float equality.
-     * @param x is the first float operand
-     * @param y is the second float operand
-     * @return true if the floats are equal within epsilon = .001 or both are
-     * infinity, false otherwise.
+     * @param k_min is the minimum k value on the open list.
+     * @return true if processing more states can't change what the current
+     * phase is waiting for.
      */
-    private boolean equals(float x, float y)
+    private boolean isFinished(int k_min)
     {
-        return (x >= Node.INFINITY && y >= Node.INFINITY) ||
-               (Math.abs(x - y) < .0001);
+        switch (phase)
+        {
+            case PLANNING:
+                //The open list ran dry or reached the robot.
+                return world.getState(robot) == Node.CLOSED || k_min < 0;
+            case REPLANNING:
+                return isRobotConsistent(k_min);
+            case BLOCKED:
+                /* Back-propagation is finished enough to close the robot's
+                 * state again.
+                 */
+                return k_min >= world.getH(blocked_cell) ||
+                       world.getState(robot) == Node.CLOSED;
+            default:
+                return true;
+        }
     }
     
     /**
-     * Do the D* pathing algorithm for this world.
+     * @return true if the current tick has used up its budget.
      */
-    public void execute()
+    private boolean isOverBudget()
     {
-        try
+        return max_states > 0 && expansions >= tick_end ||
+               max_nanos > 0 && System.nanoTime() >= tick_deadline;
+    }
+    
+    /**
+     * Give the robot a sensor, so that after every move execute reports
+     * every hidden obstacle the sensor can see as one batch to updateCells.
+     * Without one, the robot only finds an obstacle when it tries to move
+     * onto it.  The default is none.
+     * @param sensor is the robot's sensor, or null for none.
+     */
+    @Override
+    public void setSensor(Sensor sensor)
+    {
+        guide.setSensor(sensor);
+    }
+    
+    /**
+     * Start or stop keeping metrics.  While this D_Star has no metrics, the
+     * only cost is a null check per event.
+     * @param metrics receives the metrics from now on, or null to stop
+     * keeping them.
+     */
+    @Override
+    public void setMetrics(PlannerMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * @return the number of states processed since the last call to plan or
+     * execute began, including any replanning since.
+     */
+    @Override
+    public int getExpansions()
+    {
+        return expansions;
+    }
+    
+    /**
+     * Plan a path from the given start to the given goal without moving the
+     * robot.  Everything learned by earlier plans, including discovered
+     * blocked cells, is forgotten first, so the same D_Star can be used for
+     * any number of start and goal pairs.  Forgetting takes constant time;
+     * each plan only pays for the cells that it touches.  If a budget is
+     * set and runs out first, plan returns false and isConsistent is false
+     * until resume finishes the plan.
+     * @param start is the cell where the robot is.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if there is a path from start to goal.
+     * @throws IOException if the trace can't be written.
+     */
+    @Override
+    public boolean plan(int start, int goal) throws IOException
+    {
+        long start_time = metrics != null ? System.nanoTime() : 0;
+        world.reset();
+        guide.reset();
+        open_list.clear();
+        robot = start;
+        this.goal = goal;
+        focus_bias = 0;
+        focus_moves = 0;
+        expansions = 0;
+        inflation = focused ? initial_inflation : 1.0;
+        improving = false;
+        
+        if (plan_pool != null)
+        {
+            planWavefront();
+        }
+        else
         {
-            //Allocate a file for output.
-            File file = new File("output.txt");
-            FileWriter writer = new FileWriter(file);
-            
             //Add the goal to the open list.
-            insert(goal, 0.0f);
-            
-            /* The robot's path has to include his start state to say where it
-             * started.
-             */
-            path.add(robot);
-            
-            float k_min = 0.0f;
+            insert(goal, 0);
             
             //Add starting world to the output file.
-            writer.append(worldToString(robot));
+            trace.write(robot);
             
             //Process states until the robot's current state is closed.
-            while (robot.getState() != Node.CLOSED &&
-                   k_min >= 0)
-            {
-                k_min = processState();
-                
-                //Add the newly processed world to the output file.
-                writer.append(worldToString(robot));
-            }
-            
-            //No path exists and the open list is empty.
-            if (k_min < 0)
+            phase = PLANNING;
+            work(0);
+        }
+        
+        if (metrics != null)
+        {
+            metrics.planFinished(System.nanoTime() - start_time,
+                                 world.getTouchedCount());
+        }
+        
+        //If the open list ran dry before reaching the robot, there's no path.
+        return world.getState(robot) == Node.CLOSED &&
+               world.getH(robot) < CostScale.INFINITY;
+    }
+    
+    /**
+     * Make the first plan on the plan pool: find every cell's cost to the
+     * goal up to the robot's with a Wavefront, then go over those cells in
+     * the order that D* would process them, closing each and offering its
+     * cost to its neighbors as in LOWER.  D* takes cells of equal k in the
+     * order that they were put on the open list, so a cell's place among
+     * the cells of its cost is the order in which they were first offered
+     * that cost, and whoever offered it first is its backpointer.  The
+     * result is the same as on one thread, down to the backpointers and
+     * the open list.
+     * @throws IOException if the trace can't be written.
+     */
+    private void planWavefront() throws IOException
+    {
+        Wavefront wave = new Wavefront(world, robot, goal);
+        int robot_cost = wave.run(plan_pool);
+        expansions = (int)Math.min(Integer.MAX_VALUE, wave.getExpansions());
+        inflation = 1.0;
+        
+        /* The cells as cheap as the robot's, in order of cost, and the same
+         * cells in the order that they are processed, which is filled in
+         * for each cost as they are offered it.
+         */
+        long[] by_cost = wave.sortCells(robot_cost, plan_pool);
+        int[] order = new int[by_cost.length];
+        int[] offered = new int[by_cost.length];
+        order[0] = goal;
+        offered[0] = 1;
+        int next = 0;
+        for (; next < order.length; next++)
+        {
+            int x = order[next];
+            int h = wave.getCost(x);
+            world.setH(x, h);
+            world.setK(x, h);
+            world.setState(x, Node.CLOSED);
+            if (metrics != null)
             {
-                writer.flush();
-                writer.close();
-                System.err.println("No possible path.");
-                System.exit(1);
+                metrics.processed(false);
             }
-            
-            /* Processing is done; follow backpointers to the goal node.
-            */
-            while (robot.getBackpointer() != goal)
+            world.getNeighbors(x, neighbors);
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
             {
-                /* The robot isn't trying to move onto a blocked node, so add
-                * the node to the path.
-                */
-                if (robot.getBackpointer().getType() != Node.BLOCKED &&
-                robot.getBackpointer().getType() != Node.UNKNOWN_BLOCKED)
+                int y = neighbors[d];
+                if (y == Grid.NO_CELL)
                 {
-                    //The robot should be in the backpointer state.
-                    robot = robot.getBackpointer();
-                    
-                    //Add the node that the robot now occupies to the path.
-                    path.add(robot);
-                    
-                    //Add the updated world to the output file.
-                    writer.append(worldToString(robot));
+                    continue;
                 }
-                //We need to find a new path.
-                else
+                int h_new = CostScale.add(h, cost(y, x, d));
+                int h_y = wave.getCost(y);
+                if (h_y > robot_cost || h_y == CostScale.INFINITY)
                 {
-                    Node x = robot;
-                    Node y = robot.getBackpointer();
-                    k_min = modifyCost(x, y);
-                    /* We can continue following the path when back-propagation
-                     * is finished enough to close the robot's state again.
-                     */
-                    while (!(k_min >= y.getH()) && 
-                           robot.getState() != Node.CLOSED)
+                    //Not as cheap as the robot, so left on the open list.
+                    if (world.getState(y) == Node.NEW ||
+                        world.getH(y) > h_new)
                     {
-                        k_min = processState();
-                        
-                        //Add the newly processed world to the output file.
-                        writer.append(worldToString(robot));
+                        world.setBackpointer(y, x);
+                        insert(y, h_new);
                     }
                 }
+                else if (h_new == h_y &&
+                         world.getBackpointer(y) == Grid.NO_CELL)
+                {
+                    /* The first offer of y's cost puts y after the cells
+                     * already offered that cost, from where by_cost first
+                     * has it.
+                     */
+                    int first = -Arrays.binarySearch(
+                        by_cost, ((long)h_y << 32) - 1) - 1;
+                    order[first + offered[first]++] = y;
+                    world.setBackpointer(y, x);
+                }
             }
-            
-            //Print the path up to the goal.
-            for (Node node : path)
+            if (x == robot)
             {
-                System.out.println(node.getName() + " -> ");
+                break;
             }
-            /* The backpointer points to the goal, so print its name to
-             * complete the path.
-             */
-            System.out.println(robot.getBackpointer().getName());
-            
-            /* Add the final world to the output file, flush the writer,
-             * and close the writer.
-             */
-            writer.append(worldToString(robot.getBackpointer()));
-            writer.flush();
-            writer.close();
         }
-        catch (IOException ex)
+        
+        //Cells that cost as much as the robot but come after it stay open.
+        for (next++; next < order.length; next++)
         {
-            Logger.getLogger(D_Star.class.getName()).log(Level.SEVERE,null,ex);
+            insert(order[next], wave.getCost(order[next]));
         }
+        
+        //A robot that can't reach the goal has an infinite h, as in D*.
+        if (world.getState(robot) == Node.NEW)
+        {
+            insert(robot, CostScale.INFINITY);
+        }
+        phase = SETTLED;
+        
+        //Add the planned world to the output file.
+        trace.write(robot);
     }
     
     /**
-     * Represent the current state of the world as a String, including the
-     * current position of the robot.
-     * @param robot is the Node that the robot occupies.
-     * @return the String representation of the world.
+     * Tell the planner that the robot has moved.
+     * @param cell is the cell that the robot now occupies.
      */
-    private String worldToString(Node robot)
+    @Override
+    public void setRobot(int cell)
     {
-        String result = "";
-        for (int row = 0; row < rows; row++)
+        /* Focused D*: every key on the open list was computed for where the
+         * robot used to be.  Rather than recompute them all, add the
+         * distance moved to the bias, which keeps every old key a lower
+         * bound, and fix each key when it reaches the front of the list.
+         */
+        if (focused && cell != robot)
         {
-            //Print Name
-            for (int col = 0; col < cols; col++)
+            focus_bias = CostScale.add(focus_bias, inflate(robot, cell));
+            focus_moves++;
+        }
+        robot = cell;
+    }
+    
+    /**
+     * @return the cell that the robot should move to next, or Grid.NO_CELL
+     * if it doesn't have one.
+     */
+    @Override
+    public int getNextStep()
+    {
+        return guide.getNextStep(robot, goal);
+    }
+    
+    /**
+     * Get every cell of the path that the planner plans for the robot now.
+     * The path is cached, and only walked again when a backpointer on it
+     * changes or the robot leaves it, so it is cheap to ask for every tick.
+     * @return the cells from the robot to the goal, both included, or an
+     * empty array if there is no path.  The array mustn't be changed.
+     */
+    @Override
+    public int[] getPlannedPath()
+    {
+        return guide.getPlannedPath(robot, goal);
+    }
+    
+    /**
+     * Get the planned path smoothed into any-angle waypoints, each joined
+     * to the next by a straight line that crosses no known obstacle and no
+     * heavier ground than the part of the path that it replaces.
+     * @return the waypoints from the robot to the goal, both included, or
+     * an empty array if there is no path.  The array mustn't be changed.
+     */
+    @Override
+    public int[] getSmoothedPath()
+    {
+        return guide.getSmoothedPath(robot, goal);
+    }
+    
+    /**
+     * Apply a batch of cell changes reported by the robot's sensors, then
+     * replan until the robot's h is correct again.  Every state affected by
+     * any change goes on the open list before any state is processed, so a
+     * whole sweep of changes costs a single replan.  If a budget is set and
+     * runs out first, isConsistent is false until resume finishes the
+     * replan, and the robot shouldn't move until then.
+     * @param batch is the cells that changed since the last update.
+     * @return true if there is still a path from the robot to the goal, or
+     * if the budget ran out before that was known.
+     * @throws IOException if the trace can't be written.
+     */
+    @Override
+    public boolean updateCells(Iterable<CellUpdate> batch) throws IOException
+    {
+        long start_time = metrics != null ? System.nanoTime() : 0;
+        for (CellUpdate update : batch)
+        {
+            int cell = update.getCell();
+            char old_type = world.getType(cell);
+            if (old_type == update.getType())
             {
-                Node node = getNode(row, col);
-                result += gridBlock(node.getName());
+                continue;
             }
-            result += "\n";
-            //Print h
-            for (int col = 0; col < cols; col++)
+            world.setType(cell, update.getType());
+            guide.changed(cell, old_type);
+            
+            //States never reached by the search will be costed when reached.
+            if (world.getState(cell) == Node.NEW)
             {
-                Node node = getNode(row, col);
-                result += gridBlock("h: " + Float.toString(node.getH()));
+                continue;
             }
-            result += "\n";
-            //Print k
-            for (int col = 0; col < cols; col++)
+            
+            if (update.isBlocked())
             {
-                Node node = getNode(row, col);
-                result += gridBlock("k: " + Float.toString(node.getK()));
+                //Every path through the cell now has an infinite cost.
+                insert(cell, CostScale.INFINITY);
             }
-            result += "\n";
-            //Print b
-            for (int col = 0; col < cols; col++)
+            else if (cell == goal)
             {
-                Node b = getNode(row, col).getBackpointer();
-                if (b != null)
-                {
-                    result += gridBlock("b: " + b.getName());
-                }
-                else
-                {
-                    result += gridBlock("b:");
-                }
+                //No neighbor gives the goal its h, so a cleared goal needs it.
+                insert(cell, 0);
             }
-            result += "\n";
-             //Print state
-            for (int col = 0; col < cols; col++)
+            else if (world.getState(cell) == Node.CLOSED)
             {
-                Node node = getNode(row, col);
-                int state = node.getState();
-                String state_name = "";
-                if (state == Node.NEW)
+                insert(cell, world.getH(cell));
+            }
+            
+            /* The edges between the cell and its neighbors changed cost, so
+             * the neighbors need another look too.  A newly cleared cell
+             * gets its new, lower h from them.
+             */
+            world.getNeighbors(cell, neighbors);
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
+            {
+                int y = neighbors[d];
+                if (y != Grid.NO_CELL && world.getState(y) == Node.CLOSED)
                 {
-                    state_name = "NEW";
+                    insert(y, world.getH(y));
                 }
-                else if (state == Node.OPEN)
+            }
+        }
+        
+        //A first plan that isn't finished yet stays one.
+        if (phase != PLANNING)
+        {
+            phase = REPLANNING;
+        }
+        improving = false;
+        
+        /* Behind a wall around the robot or the goal, nothing needs to be
+         * replanned until the wall opens again.
+         */
+        boolean cut_off = guide.isCutOff(robot, goal);
+        boolean settled = cut_off || work(getKMin());
+        if (metrics != null)
+        {
+            metrics.replanFinished(System.nanoTime() - start_time,
+                                   world.getTouchedCount());
+        }
+        return !cut_off &&
+               (!settled || world.getH(robot) < CostScale.INFINITY);
+    }
+    
+    /**
+     * Check whether processing more states could still change the robot's h.
+     * States with keys equal to the robot's h are still processed, since
+     * with Focused D* the keys along a straight path to the robot all equal
+     * the robot's h.
+     * @param k_min is the minimum k value on the open list.
+     * @return true if the robot's h is correct.
+     */
+    private boolean isRobotConsistent(int k_min)
+    {
+        int h = world.getH(robot);
+        if (k_min < 0 || h == CostScale.INFINITY && k_min == CostScale.INFINITY)
+        {
+            return true;
+        }
+        return k_min > h;
+    }
+    
+    /**
+     * @return true if no state left on the open list can lower the robot's
+     * infinite h, so there is no way out.
+     */
+    private boolean isStuck()
+    {
+        return world.getH(robot) == CostScale.INFINITY &&
+               isRobotConsistent(getKMin());
+    }
+    
+    /**
+     * Do the D* pathing algorithm from the map's start to its goal.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     */
+    @Override
+    public boolean execute()
+    {
+        return execute(grid.getStart(), grid.getGoal());
+    }
+    
+    /**
+     * Do the D* pathing algorithm from the given start to the given goal:
+     * plan, then move the robot along the backpointers to the goal,
+     * replanning whenever it finds its next cell blocked.  Each step is
+     * written to the output file for the current trace mode.
+     * @param start is the cell where the robot starts.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     */
+    @Override
+    public boolean execute(int start, int goal)
+    {
+        path.clear();
+        
+        boolean reached_goal = false;
+        try
+        {
+            //Allocate a file for output.
+            trace = trace_mode.open(world);
+            try
+            {
+                reached_goal = traverse(start, goal);
+            }
+            finally
+            {
+                trace.close();
+                trace = Trace.OFF;
+            }
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(D_Star.class.getName()).log(Level.SEVERE,null,ex);
+        }
+        
+        if (!reached_goal)
+        {
+            System.err.println("No possible path.");
+        }
+        return reached_goal;
+    }
+    
+    /**
+     * Plan from the goal, then move the robot along the backpointers to the
+     * goal, replanning whenever it finds its next cell blocked.  With a
+     * budget, each step of the robot is one tick: the robot waits where it
+     * is while a plan or replan takes more ticks, and moves on while the
+     * path is only being improved.
+     * @param start is the cell where the robot starts.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     * @throws IOException if the trace can't be written.
+     */
+    private boolean traverse(int start, int goal) throws IOException
+    {
+        /* The robot's path has to include his start state to say where it
+         * started.
+         */
+        path.add(start);
+        
+        plan(start, goal);
+        while (!isConsistent())
+        {
+            resume();
+        }
+        
+        //No path exists and the open list is empty.
+        if (world.getState(robot) != Node.CLOSED || !guide.sense(this, robot))
+        {
+            return false;
+        }
+        
+        /* Processing is done; follow backpointers to the goal node.
+        */
+        while (world.getBackpointer(robot) != goal)
+        {
+            //Spend this tick on an unfinished replan or on a better path.
+            if (!isConsistent() || inflation > 1.0)
+            {
+                resume();
+                if (!isConsistent() && !improving)
                 {
-                    state_name = "OPEN";
+                    continue;
                 }
-                else if (state == Node.CLOSED)
+                if (isStuck())
                 {
-                    state_name = "CLOSED";
+                    return false;
                 }
-                result += gridBlock(state_name);
             }
-            result += "\n";
-            //Print type
-            for (int col = 0; col < cols; col++)
+            
+            int next = world.getBackpointer(robot);
+            /* The robot isn't trying to move onto a blocked node, so add
+            * the node to the path.
+            */
+            if (world.getType(next) != Node.BLOCKED &&
+                world.getType(next) != Node.UNKNOWN_BLOCKED)
             {
-                Node node = getNode(row, col);
-                result += gridBlock(Character.toString(node.getType()));
+                //The robot should be in the backpointer state.
+                setRobot(next);
+                
+                //Add the node that the robot now occupies to the path.
+                path.add(robot);
+                
+                //Add the updated world to the output file.
+                trace.write(robot);
+                if (!guide.sense(this, robot))
+                {
+                    return false;
+                }
             }
-            result += "\n";
-            //Print "Robot" if it's currently here
-            boolean line_has_robot = false;
-            for (int col = 0; col < cols; col++)
+            //We need to find a new path.
+            else
             {
-                Node node = getNode(row, col);
-                if (node == robot)
+                long start_time = metrics != null ? System.nanoTime() : 0;
+                char old_type = world.getType(next);
+                int k_min = modifyCost(robot, next);
+                guide.changed(next, old_type);
+                if (guide.isCutOff(robot, goal))
                 {
-                    line_has_robot = true;
-                    result += gridBlock("ROBOT");
+                    return false;
                 }
-                else
+                
+                /* We can continue following the path when back-propagation
+                 * is finished enough to close the robot's state again.
+                 */
+                phase = BLOCKED;
+                blocked_cell = next;
+                improving = false;
+                boolean settled = work(k_min);
+                if (metrics != null)
                 {
-                    result += gridBlock("");
+                    metrics.replanFinished(System.nanoTime() - start_time,
+                                           world.getTouchedCount());
+                }
+                if (settled && isStuck())
+                {
+                    return false;
                 }
             }
-            
-            if (line_has_robot)
-            {
-                result += "\n";
-            }
-            result += "\n\n";
-        }
-        return result + "**************************************************" +
-                        "**************************************************" +
-                        "\n\n";
-    }
-    
-    /**
-     * Turn the given String into a String of standardized length.  If the
-     * String isn't 15 characters long, pad the end with spaces.
-     * @param string is the String to format.
-     * @return a String that is exactly 15 characters long.
-     */
-    private String gridBlock(String string)
-    {
-        int length = 15 - string.length();
-        String result = string;
-        for (int i = 0; i < length; i++)
-        {
-            result += " ";
         }
-        return result;
+        
+        //The backpointer points to the goal, so the path ends there.
+        path.add(goal);
+        grid.printPath(getPath());
+        
+        //Add the final world to the output file.
+        trace.write(goal);
+        return true;
     }
     
     /**
@@ -572,7 +1224,18 @@ public class D_Star
      */
     public static void main(String[] args)
     {
-        D_Star d_star = new D_Star("map3.txt");
-        d_star.execute();
+        try
+        {
+            D_Star d_star = new D_Star("map3.txt");
+            if (!d_star.execute())
+            {
+                System.exit(1);
+            }
+        }
+        catch (IOException ex)
+        {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
     }
 }
@@ -0,0 +1,103 @@
+package d_star;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replays a trace written in TraceMode.DELTA and writes the FULL snapshot
+ * for every step, exactly as D_Star would have written it.
+ * @author Kevin Dittmar
+ */
+public class DeltaTraceReader
+{
+    /**
+     * Rebuild the full snapshots from a delta trace.
+     * @param in is the delta trace.
+     * @param out is where the full snapshots are written.  It is not closed.
+     * @return the number of snapshots written.
+     * @throws IOException if the trace can't be read or is malformed, or the
+     * snapshots can't be written.
+     */
+    public static int replay(Reader in, OutputStream out) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(in);
+        String header = reader.readLine();
+        String[] fields = header == null ? new String[0] : header.split(" ");
+        if (fields.length != 3 || !fields[0].equals(DeltaTraceWriter.HEADER))
+        {
+            throw new IOException("Not a delta trace: " + header);
+        }
+        //The finest scale keeps every h and k exactly as it was written.
+        SearchState world = new SearchState(
+            new Grid(Integer.parseInt(fields[1]), Integer.parseInt(fields[2])),
+            CostScale.THOUSANDTHS);
+        SnapshotWriter writer = new SnapshotWriter(out, world);
+        
+        int steps = 0;
+        int robot = Grid.NO_CELL;
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            fields = line.split(" ");
+            if (fields[0].equals(DeltaTraceWriter.STEP))
+            {
+                //The previous step is complete, so write it out.
+                if (steps > 0)
+                {
+                    writer.write(robot);
+                }
+                robot = Integer.parseInt(fields[1]);
+                steps++;
+            }
+            else if (fields.length == 6)
+            {
+                int cell = Integer.parseInt(fields[0]);
+                world.setDisplayH(cell, Float.parseFloat(fields[1]));
+                world.setDisplayK(cell, Float.parseFloat(fields[2]));
+                world.setBackpointer(cell, Integer.parseInt(fields[3]));
+                world.setState(cell, Integer.parseInt(fields[4]));
+                world.setType(cell, fields[5].charAt(0));
+            }
+            else
+            {
+                throw new IOException("Malformed delta trace line: " + line);
+            }
+        }
+        if (steps > 0)
+        {
+            writer.write(robot);
+        }
+        writer.flush();
+        return steps;
+    }
+    
+    /**
+     * @param args the delta trace to read and the file to write the full
+     * snapshots to.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: DeltaTraceReader <delta trace> <output>");
+            System.exit(1);
+        }
+        try (Reader in = new FileReader(new File(args[0]));
+             OutputStream out = new FileOutputStream(new File(args[1])))
+        {
+            replay(in, out);
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(DeltaTraceReader.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+    }
+}
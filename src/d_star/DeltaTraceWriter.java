@@ -0,0 +1,92 @@
+package d_star;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Records only what changed in the world between steps.  The trace starts
+ * with a header line
+ * <pre>DELTA rows cols</pre>
+ * and every step is a line
+ * <pre>STEP robot</pre>
+ * followed by one line per changed cell
+ * <pre>cell h k b state type</pre>
+ * where robot, cell and b are cell indices (b is -1 for no backpointer) and
+ * state is one of the Node state constants.  The first step is measured
+ * against a world where every cell is NEW and UNRESTRICTED, so replaying
+ * the steps in order with DeltaTraceReader rebuilds every snapshot.
+ * 
+ * Only the first step looks at every cell.  After that, the SearchState
+ * lists each cell as it changes (see ChangedCells), so a step costs time
+ * for the cells that it changed, not for the size of the map.  A cell that
+ * changed and then changed back during a step is written again, with the
+ * same values.
+ * @author Kevin Dittmar
+ */
+class DeltaTraceWriter implements Trace
+{
+    static final String HEADER = "DELTA";
+    static final String STEP = "STEP";
+    
+    private final BufferedWriter out;
+    private final SearchState world;
+    
+    //The cells that changed since the last step.
+    private final ChangedCells changes;
+    
+    private final StringBuilder line;
+    
+    /**
+     * @param out is where the trace is written.  It is closed when this
+     * DeltaTraceWriter is closed.
+     * @param world is the SearchState to trace.
+     * @throws IOException if the header can't be written.
+     */
+    DeltaTraceWriter(Writer out, SearchState world) throws IOException
+    {
+        this.out = new BufferedWriter(out);
+        this.world = world;
+        int rows = world.getGrid().getRows();
+        int cols = world.getGrid().getCols();
+        changes = ChangedCells.track(world);
+        line = new StringBuilder();
+        this.out.write(HEADER + " " + rows + " " + cols);
+        this.out.newLine();
+    }
+    
+    /**
+     * Write the robot's position and every cell that changed since the
+     * last step.
+     * @param robot is the cell that the robot occupies.
+     * @throws IOException if the trace can't be written to.
+     */
+    @Override
+    public void write(int robot) throws IOException
+    {
+        out.write(STEP + " " + robot);
+        out.newLine();
+        changes.sort();
+        for (int i = 0; i < changes.size(); i++)
+        {
+            int cell = changes.get(i);
+            line.setLength(0);
+            line.append(cell).append(' ')
+                .append(world.getDisplayH(cell)).append(' ')
+                .append(world.getDisplayK(cell)).append(' ')
+                .append(world.getBackpointer(cell)).append(' ')
+                .append(world.getState(cell)).append(' ')
+                .append(world.getType(cell));
+            out.append(line);
+            out.newLine();
+        }
+        changes.clear();
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        world.setChangedCells(null);
+        out.close();
+    }
+}
@@ -0,0 +1,63 @@
+package d_star;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs the same maps with unfocused D*, Focused D* and D* Lite and reports
+ * how many states each one processed.
+ * @author Kevin Dittmar
+ */
+public class ExpansionReport
+{
+    /**
+     * @param args the map files to run, or map1.txt through map4.txt if
+     * none are given.
+     */
+    public static void main(String[] args)
+    {
+        String[] maps = args.length > 0 ? args :
+            new String[] {"map1.txt", "map2.txt", "map3.txt", "map4.txt"};
+        
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-20s %12s %12s %10s %12s%n",
+                                    "map", "unfocused", "focused", "saved",
+                                    "lite"));
+        for (String map : maps)
+        {
+            try
+            {
+                Grid grid = MapLoader.load(new File(map));
+                int unfocused = expansions(new D_Star(grid));
+                D_Star focused_d_star = new D_Star(grid);
+                focused_d_star.setFocused(true);
+                int focused = expansions(focused_d_star);
+                int lite = expansions(new DStarLite(grid));
+                double saved = unfocused == 0 ? 0.0 :
+                               100.0 * (unfocused - focused) / unfocused;
+                report.append(String.format("%-20s %12d %12d %9.1f%% %12d%n",
+                                            map, unfocused, focused, saved,
+                                            lite));
+            }
+            catch (IOException ex)
+            {
+                report.append(String.format("%-20s %s%n",
+                                            map, ex.getMessage()));
+            }
+        }
+        System.out.print(report);
+    }
+    
+    /**
+     * Run a planner over its map from the start to the goal without
+     * writing a trace.
+     * @param planner is the planner to run.
+     * @return the number of states processed.
+     */
+    private static int expansions(Planner planner)
+    {
+        planner.setTraceMode(TraceMode.OFF);
+        planner.execute();
+        return planner.getExpansions();
+    }
+}
@@ -0,0 +1,549 @@
+package d_star;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The map of a rectangular world: its size, the type of every cell, and
+ * where the robot starts and is trying to go.  Cells are addressed by
+ * index = row * cols + col.  Types are kept in layers: one bit per cell
+ * for BLOCKED and one for UNKNOWN_BLOCKED, each allocated only once a cell
+ * has that type, and a byte per cell for terrain, allocated only for maps
+ * with terrain.  A map of open ground and walls therefore costs one bit
+ * per cell.  A Grid holds no search information, so one
+ * loaded map can be planned over any number of times; see SearchState.
+ * Planning only ever reads the Grid, so once it is loaded any number of
+ * planners can share it, on any number of threads; see AgentPool.
+ * @author Kevin Dittmar
+ */
+public class Grid
+{
+    //Index value for "no cell", e.g. a cell without a backpointer.
+    static final int NO_CELL = -1;
+    
+    /* The eight directions to a neighboring cell, in row-major order.  See
+     * CostScale for the cost of a single move in each direction, and
+     * Neighborhood for which of them a search uses.
+     */
+    static final int DIRECTIONS = 8;
+    static final int[] ROW_MODS = {-1, -1, -1, 0, 0, 1, 1, 1};
+    static final int[] COL_MODS = {-1, 0, 1, -1, 1, -1, 0, 1};
+    
+    /* Search state is kept in square tiles of TILE_SIDE by TILE_SIDE cells,
+     * each one allocated when a search first writes one of its cells, so a
+     * search that spreads out in every direction allocates about the area
+     * that it covers.  See tiled for where each cell is kept: tiled(i) is
+     * number tiled(i) & TILE_MASK in tile tiled(i) >>> TILE_SHIFT.
+     */
+    static final int TILE_SIDE_SHIFT = 4;
+    static final int TILE_SIDE = 1 << TILE_SIDE_SHIFT;
+    static final int TILE_SHIFT = 2 * TILE_SIDE_SHIFT;
+    static final int TILE_CELLS = 1 << TILE_SHIFT;
+    static final int TILE_MASK = TILE_CELLS - 1;
+    
+    /* For comparing eight type bytes packed in a long at once: every byte
+     * but its high bit, 1 in every byte, and the multiplier that gathers
+     * the high bit of every byte into the top byte.
+     */
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long BYTE_ONES = 0x0101010101010101L;
+    private static final long GATHER = 0x0102040810204080L;
+    
+    private final int rows;
+    private final int cols;
+    private final int size;
+    
+    //The BLOCKED and UNKNOWN_BLOCKED cells.
+    private final BitLayer blocked;
+    private final BitLayer unknown_blocked;
+    
+    //The terrain digit of every cell, or 0; null until there is terrain.
+    private byte[] terrain;
+    
+    //The cells whose type is START and GOAL, or NO_CELL.
+    private int start;
+    private int goal;
+    
+    //Index offset to the neighbor in each direction.
+    private final int[] offsets;
+    
+    /* The number of tiles across the world, and a multiplier and shift
+     * that divide any cell index by cols: the row of cell i is
+     * i * row_multiplier >>> row_shift.
+     */
+    private final int tile_cols;
+    private final long row_multiplier;
+    private final int row_shift;
+    
+    /**
+     * Create a world where every cell is UNRESTRICTED.
+     * @param rows is the number of rows in the world.
+     * @param cols is the number of columns in the world.
+     */
+    public Grid(int rows, int cols)
+    {
+        this.rows = rows;
+        this.cols = cols;
+        size = rows * cols;
+        blocked = new BitLayer(size);
+        unknown_blocked = new BitLayer(size);
+        start = NO_CELL;
+        goal = NO_CELL;
+        
+        offsets = new int[DIRECTIONS];
+        for (int d = 0; d < DIRECTIONS; d++)
+        {
+            offsets[d] = ROW_MODS[d] * cols + COL_MODS[d];
+        }
+        
+        /* Rounding 2^row_shift / cols up makes the quotient exact for every
+         * index below 2^31, as long as 2^row_shift is at least 2^31 times
+         * cols, and the product never overflows 64 unsigned bits.
+         */
+        tile_cols = (cols + TILE_SIDE - 1) >>> TILE_SIDE_SHIFT;
+        row_shift = 31 + 32 - Integer.numberOfLeadingZeros(Math.max(cols - 1,
+                                                                    1));
+        row_multiplier = ((1L << row_shift) + cols - 1) / cols;
+    }
+    
+    /**
+     * @return the cell where the robot starts, which is the cell whose
+     * type is START, or NO_CELL if there isn't one.
+     */
+    public int getStart()
+    {
+        return start;
+    }
+    
+    /**
+     * @return the cell that the robot is trying to reach, which is the cell
+     * whose type is GOAL, or NO_CELL if there isn't one.
+     */
+    public int getGoal()
+    {
+        return goal;
+    }
+    
+    /**
+     * @return the number of rows in the world.
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+    
+    /**
+     * @return the number of columns in the world.
+     */
+    public int getCols()
+    {
+        return cols;
+    }
+    
+    /**
+     * @return the number of cells in the world.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Get the index of the cell at the requested row and column.
+     * @param row is the row of the cell (0 <= row < rows)
+     * @param col is the column of the cell (0 <= col < cols)
+     * @return the index of the cell, or NO_CELL if out of bounds.
+     */
+    public int index(int row, int col)
+    {
+        if (row >= 0 && row < rows && col >= 0 && col < cols)
+        {
+            return row * cols + col;
+        }
+        return NO_CELL;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the row of the cell.
+     */
+    public int getRow(int cell)
+    {
+        return cell / cols;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the column of the cell.
+     */
+    public int getCol(int cell)
+    {
+        return cell % cols;
+    }
+    
+    /**
+     * @return the number of tiles of search state that cover the world.
+     */
+    int getTileCount()
+    {
+        return tile_cols * ((rows + TILE_SIDE - 1) >>> TILE_SIDE_SHIFT);
+    }
+    
+    /**
+     * Number the cells tile by tile: a tile's cells are numbered together,
+     * row by row within the tile, and tiles are numbered row by row across
+     * the world.
+     * @param cell is the index of a cell.
+     * @return the number of the cell, which is number & TILE_MASK in tile
+     * number >>> TILE_SHIFT.
+     */
+    int tiled(int cell)
+    {
+        int row = (int)(cell * row_multiplier >>> row_shift);
+        int col = cell - row * cols;
+        return ((row >>> TILE_SIDE_SHIFT) * tile_cols +
+                (col >>> TILE_SIDE_SHIFT)) << TILE_SHIFT |
+               (row & TILE_SIDE - 1) << TILE_SIDE_SHIFT | col & TILE_SIDE - 1;
+    }
+    
+    /**
+     * @param tiled is the number of a cell, as given by tiled.
+     * @return the index of the cell, or NO_CELL if the number is of a
+     * place in a tile that hangs over the edge of the world.
+     */
+    int untiled(int tiled)
+    {
+        int tile = tiled >>> TILE_SHIFT;
+        int row = (tile / tile_cols << TILE_SIDE_SHIFT) +
+                  ((tiled & TILE_MASK) >>> TILE_SIDE_SHIFT);
+        int col = (tile % tile_cols << TILE_SIDE_SHIFT) +
+                  (tiled & TILE_SIDE - 1);
+        return index(row, col);
+    }
+    
+    /**
+     * Find the neighbors of a cell without allocating anything.
+     * @param cell is the index of the cell in question.
+     * @param neighbors receives the index of the neighbor in each of the
+     * DIRECTIONS directions, or NO_CELL where that neighbor would be outside
+     * of the world.
+     */
+    void getNeighbors(int cell, int[] neighbors)
+    {
+        int row = cell / cols;
+        int col = cell - row * cols;
+        boolean up = row > 0;
+        boolean down = row < rows - 1;
+        boolean left = col > 0;
+        boolean right = col < cols - 1;
+        neighbors[0] = up && left ? cell + offsets[0] : NO_CELL;
+        neighbors[1] = up ? cell + offsets[1] : NO_CELL;
+        neighbors[2] = up && right ? cell + offsets[2] : NO_CELL;
+        neighbors[3] = left ? cell + offsets[3] : NO_CELL;
+        neighbors[4] = right ? cell + offsets[4] : NO_CELL;
+        neighbors[5] = down && left ? cell + offsets[5] : NO_CELL;
+        neighbors[6] = down ? cell + offsets[6] : NO_CELL;
+        neighbors[7] = down && right ? cell + offsets[7] : NO_CELL;
+    }
+    
+    /**
+     * The cost of the cheapest path between two cells if nothing were in the
+     * way: diagonal moves for as long as possible, then straight moves.
+     * This never overestimates the real cost of a path.
+     * @param a is the index of a cell.
+     * @param b is the index of another cell.
+     * @param scale is the scale of the cost.
+     * @return the cost of the cheapest unobstructed path between a and b.
+     */
+    int distance(int a, int b, CostScale scale)
+    {
+        int row_a = a / cols;
+        int row_b = b / cols;
+        int rows_apart = Math.abs(row_a - row_b);
+        int cols_apart = Math.abs((a - row_a * cols) - (b - row_b * cols));
+        int diagonal = Math.min(rows_apart, cols_apart);
+        int straight = Math.max(rows_apart, cols_apart) - diagonal;
+        return CostScale.add(diagonal * scale.getDiagonal(),
+                             straight * scale.getStraight());
+    }
+    
+    /**
+     * @param from is the index of a cell.
+     * @param to is the index of one of its neighbors.
+     * @return the direction from one cell to the other, one of the
+     * DIRECTIONS directions.
+     */
+    int direction(int from, int to)
+    {
+        int direction = (getRow(to) - getRow(from) + 1) * 3 +
+                        getCol(to) - getCol(from) + 1;
+        //Skip the middle of the 3x3 block, which is the cell itself.
+        return direction > 4 ? direction - 1 : direction;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the name of the cell in the form (row,col).
+     */
+    String getName(int cell)
+    {
+        return appendName(new StringBuilder(), cell).toString();
+    }
+    
+    /**
+     * Print the cells of a path, one per line in the form (row,col), with
+     * an arrow after each one but the last, as a single write.
+     * @param path is the cells of the path, in order.
+     */
+    void printPath(int[] path)
+    {
+        int length = path.length;
+        StringBuilder out = new StringBuilder(length * 16);
+        String line = System.lineSeparator();
+        for (int i = 0; i < length; i++)
+        {
+            appendName(out, path[i]);
+            out.append(i < length - 1 ? " -> " : "").append(line);
+        }
+        System.out.print(out);
+    }
+    
+    /**
+     * @param out receives the name of the cell.
+     * @param cell is the index of a cell.
+     * @return out.
+     */
+    private StringBuilder appendName(StringBuilder out, int cell)
+    {
+        return out.append('(').append(getRow(cell)).append(',')
+                  .append(getCol(cell)).append(')');
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the type of the cell on the map, one of the type constants in
+     * Node.
+     */
+    char getType(int cell)
+    {
+        if (blocked.get(cell))
+        {
+            return Node.BLOCKED;
+        }
+        if (unknown_blocked.get(cell))
+        {
+            return Node.UNKNOWN_BLOCKED;
+        }
+        if (terrain != null && terrain[cell] != 0)
+        {
+            return (char)terrain[cell];
+        }
+        if (cell == start)
+        {
+            return Node.START;
+        }
+        return cell == goal ? Node.GOAL : Node.UNRESTRICTED;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return true if the cell is BLOCKED on the map.
+     */
+    boolean isBlocked(int cell)
+    {
+        return blocked.get(cell);
+    }
+    
+    /**
+     * @return true if any cell of the map is terrain heavier than
+     * UNRESTRICTED ground.
+     */
+    boolean hasTerrain()
+    {
+        return terrain != null;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return true if the cell is BLOCKED or UNKNOWN_BLOCKED on the map.
+     */
+    boolean isObstacle(int cell)
+    {
+        return blocked.get(cell) || unknown_blocked.get(cell);
+    }
+    
+    /**
+     * Set the type of a cell.  A map has at most one START cell and one
+     * GOAL cell, so marking another cell as START or GOAL unmarks the last.
+     * @param cell is the index of a cell.
+     * @param value is one of the type constants in Node.
+     */
+    void setType(int cell, char value)
+    {
+        blocked.set(cell, value == Node.BLOCKED);
+        unknown_blocked.set(cell, value == Node.UNKNOWN_BLOCKED);
+        setMark(cell, value);
+    }
+    
+    /**
+     * Record the part of a cell's type that isn't kept in a bit layer.
+     * @param cell is the index of a cell.
+     * @param value is one of the type constants in Node.
+     */
+    private void setMark(int cell, char value)
+    {
+        boolean digit = Node.weight(value) > 1;
+        if (digit && terrain == null)
+        {
+            terrain = new byte[size];
+        }
+        if (terrain != null)
+        {
+            terrain[cell] = digit ? (byte)value : 0;
+        }
+        if (value == Node.START)
+        {
+            start = cell;
+        }
+        else if (cell == start)
+        {
+            start = NO_CELL;
+        }
+        if (value == Node.GOAL)
+        {
+            goal = cell;
+        }
+        else if (cell == goal)
+        {
+            goal = NO_CELL;
+        }
+    }
+    
+    /**
+     * Set the types of a run of consecutive cells at once.  The types are
+     * compared eight at a time and written to the bit layers 64 at a time.
+     * @param cell is the index of the first cell.
+     * @param types holds one type constant from Node per cell.
+     */
+    void setTypes(int cell, byte[] types)
+    {
+        ByteBuffer bytes = ByteBuffer.wrap(types)
+                                     .order(ByteOrder.LITTLE_ENDIAN);
+        for (int first = 0; first < types.length; first += 64)
+        {
+            int count = Math.min(64, types.length - first);
+            long blocked_bits = 0;
+            long unknown_bits = 0;
+            long open_bits = 0;
+            for (int i = 0; i < count; i += 8)
+            {
+                long eight;
+                if (i + 8 <= count)
+                {
+                    eight = bytes.getLong(first + i);
+                }
+                else
+                {
+                    //Pad the last few types out with open ground.
+                    eight = BYTE_ONES * Node.UNRESTRICTED;
+                    for (int j = 0; j < count - i; j++)
+                    {
+                        eight ^= (long)((types[first + i + j] & 0xFF) ^
+                                        Node.UNRESTRICTED) << 8 * j;
+                    }
+                }
+                blocked_bits |= matches(eight, Node.BLOCKED) << i;
+                unknown_bits |= matches(eight, Node.UNKNOWN_BLOCKED) << i;
+                open_bits |= matches(eight, Node.UNRESTRICTED) << i;
+            }
+            blocked.setBits(cell + first, count, blocked_bits);
+            unknown_blocked.setBits(cell + first, count, unknown_bits);
+            
+            //Most runs have nothing but open ground and obstacles.
+            int from = cell + first;
+            long others = ~(blocked_bits | unknown_bits | open_bits);
+            if ((count == 64 ? others : others & (1L << count) - 1) != 0 ||
+                terrain != null ||
+                (start >= from && start < from + count) ||
+                (goal >= from && goal < from + count))
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    setMark(from + i, (char)(types[first + i] & 0xFF));
+                }
+            }
+        }
+    }
+    
+    /**
+     * @param eight holds eight type bytes, the first in the lowest byte.
+     * @param value is a type constant from Node.
+     * @return a bit for each of the eight types, the first in the lowest
+     * bit, set if the type is value.
+     */
+    private static long matches(long eight, char value)
+    {
+        //Bytes equal to value become 0, and only 0 bytes get a high bit.
+        long difference = eight ^ BYTE_ONES * value;
+        long zeros = ~((difference & LOW_BITS) + LOW_BITS | difference |
+                       LOW_BITS);
+        return (zeros >>> 7) * GATHER >>> 56;
+    }
+    
+    /**
+     * Set the type of every cell in a rectangle, a word at a time along
+     * each row, e.g. to put up a wall or to mark what a sensor saw.
+     * @param top is the row of the rectangle's top left cell.
+     * @param left is the column of the rectangle's top left cell.
+     * @param height is the number of rows in the rectangle.
+     * @param width is the number of columns in the rectangle.
+     * @param value is one of the type constants in Node.
+     */
+    void fill(int top, int left, int height, int width, char value)
+    {
+        for (int row = top; row < top + height; row++)
+        {
+            int from = index(row, left);
+            int to = from + width;
+            blocked.fill(from, to, value == Node.BLOCKED);
+            unknown_blocked.fill(from, to, value == Node.UNKNOWN_BLOCKED);
+            if (Node.weight(value) > 1 || terrain != null ||
+                value == Node.START || value == Node.GOAL ||
+                (start >= from && start < to) ||
+                (goal >= from && goal < to))
+            {
+                for (int cell = from; cell < to; cell++)
+                {
+                    setMark(cell, value);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Count the cells of one type, a word at a time for BLOCKED and
+     * UNKNOWN_BLOCKED.
+     * @param value is one of the type constants in Node.
+     * @return the number of cells of that type on the map.
+     */
+    int count(char value)
+    {
+        if (value == Node.BLOCKED)
+        {
+            return blocked.count();
+        }
+        if (value == Node.UNKNOWN_BLOCKED)
+        {
+            return unknown_blocked.count();
+        }
+        int count = 0;
+        for (int cell = 0; cell < size; cell++)
+        {
+            if (getType(cell) == value)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,154 @@
+package d_star;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * What a planner tells its robot about the way to the goal: the cell to
+ * move to next, the planned path and its smoothed waypoints, and whether
+ * the robot is walled off from the goal altogether.  Every Planner follows
+ * the backpointers of a SearchState the same way, so each keeps one Guide
+ * over its SearchState, tells it when cells change, and lets it answer
+ * these questions and run the robot's sensor.
+ * @author Kevin Dittmar
+ */
+final class Guide
+{
+    private static final int[] NONE = {};
+    
+    private final Grid grid;
+    private final SearchState world;
+    
+    //Whether the robot is known to be walled off from the goal.
+    private final Connectivity connectivity;
+    
+    //The path that the robot is planned to take from where it is now.
+    private final PlannedPath planned;
+    
+    //Finds hidden obstacles around the robot after each move, or null.
+    private Sensor sensor;
+    
+    /**
+     * @param grid is the map being planned over.
+     * @param world is the search whose backpointers the robot follows.
+     */
+    Guide(Grid grid, SearchState world)
+    {
+        this.grid = grid;
+        this.world = world;
+        connectivity = new Connectivity(world);
+        planned = new PlannedPath(world);
+    }
+    
+    /**
+     * @param sensor is the robot's sensor, or null for none.
+     */
+    void setSensor(Sensor sensor)
+    {
+        this.sensor = sensor;
+    }
+    
+    /**
+     * Forget every wall found since the search was last reset.
+     */
+    void reset()
+    {
+        connectivity.reset();
+    }
+    
+    /**
+     * Note that the search now believes a cell has a different type.
+     * @param cell is the index of the cell.
+     * @param old_type is the type that the search believed it had before.
+     */
+    void changed(int cell, char old_type)
+    {
+        if (world.isBlocked(cell))
+        {
+            connectivity.blocked(cell);
+        }
+        else if (old_type == Node.BLOCKED)
+        {
+            connectivity.cleared(cell);
+        }
+    }
+    
+    /**
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the cells that the search believes are BLOCKED wall
+     * the robot off from the goal.
+     */
+    boolean isCutOff(int robot, int goal)
+    {
+        return connectivity.isCutOff(robot, goal);
+    }
+    
+    /**
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return the cell that the robot should move to next, or Grid.NO_CELL
+     * if it doesn't have one, which is also the case while the robot's h
+     * is infinite or the edge to its backpointer can't be crossed.
+     */
+    int getNextStep(int robot, int goal)
+    {
+        int next = world.getBackpointer(robot);
+        if (next == Grid.NO_CELL || connectivity.isCutOff(robot, goal) ||
+            world.getH(robot) == CostScale.INFINITY ||
+            world.cost(robot, next, grid.direction(robot, next)) ==
+            CostScale.INFINITY)
+        {
+            return Grid.NO_CELL;
+        }
+        return next;
+    }
+    
+    /**
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return the cells from the robot to the goal, both included, or an
+     * empty array if there is no path.  The array mustn't be changed.
+     */
+    int[] getPlannedPath(int robot, int goal)
+    {
+        if (connectivity.isCutOff(robot, goal))
+        {
+            return NONE;
+        }
+        return planned.get(robot, goal);
+    }
+    
+    /**
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return the waypoints from the robot to the goal, both included, or
+     * an empty array if there is no path.  The array mustn't be changed.
+     */
+    int[] getSmoothedPath(int robot, int goal)
+    {
+        if (connectivity.isCutOff(robot, goal))
+        {
+            return NONE;
+        }
+        return planned.smooth(robot, goal);
+    }
+    
+    /**
+     * Report every hidden obstacle that the sensor can see from the robot's
+     * cell to the planner as one batch.
+     * @param planner is the planner that the robot follows.
+     * @param robot is the cell that the robot occupies.
+     * @return false if that leaves no path from the robot to the goal.
+     * @throws IOException if the trace can't be written.
+     */
+    boolean sense(Planner planner, int robot) throws IOException
+    {
+        if (sensor == null)
+        {
+            return true;
+        }
+        List<CellUpdate> seen = sensor.scan(grid, world, robot);
+        return seen.isEmpty() || planner.updateCells(seen);
+    }
+}
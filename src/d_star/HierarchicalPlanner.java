@@ -0,0 +1,1105 @@
+package d_star;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A hierarchical planner in the style of HPA*, from Adi Botea, Martin
+ * Mueller and Jonathan Schaeffer's 2004 paper Near Optimal Hierarchical
+ * Path-Finding.  The map is divided into square clusters.  Wherever two
+ * neighboring clusters share a run of open cells along their border, the
+ * run gets one or two entrances, and the first time a search reaches a
+ * cluster, the cheapest path within the cluster between each pair of its
+ * entrances is worked out.  A plan searches this much smaller graph of
+ * entrances for a coarse route, then refines it with one A* search that
+ * only enters the clusters the coarse route passes and the clusters
+ * around them.
+ *
+ * When cells change, only the clusters around them forget their entrances,
+ * so a replan costs a few searches the size of a cluster, a search of the
+ * entrance graph and a search of the corridor around the route, rather
+ * than a wave of RAISE states across the map.  In exchange, routes are
+ * only the cheapest within that corridor, so there is no fixed bound on
+ * how much more they cost than the cheapest path.  Against D_Star on
+ * about 50,000 random maps with clusters of 2 to 32 cells, routes cost
+ * well under 1% more on average, and never more than 30% more.
+ *
+ * The route is kept in a SearchState so that every trace mode works the
+ * same way as it does for D_Star: each cell on the route is CLOSED, with a
+ * backpointer to the next cell and an h of the cost from there to the goal.
+ * @author Kevin Dittmar
+ */
+public class HierarchicalPlanner implements Planner
+{
+    /**
+     * The width and height of a cluster, in cells, unless another size is
+     * given.
+     */
+    public static final int DEFAULT_CLUSTER_SIZE = 32;
+    
+    /* A run of open cells along a border at least this long gets an
+     * entrance at each end and one every ENTRANCE_SPACING cells between
+     * them, instead of one in the middle.
+     */
+    private static final int LONG_RUN = 6;
+    private static final int ENTRANCE_SPACING = 8;
+    
+    //Targets for a search that reaches every cell it can.
+    private static final int[] EVERY_CELL = {};
+    
+    //The Grid.DIRECTIONS directions across each side of a cluster.
+    private static final int UP = 1;
+    private static final int LEFT = 3;
+    private static final int RIGHT = 4;
+    private static final int DOWN = 6;
+    
+    /**
+     * The entrances of one cluster and the edges out of each of them.
+     */
+    private static class Cluster
+    {
+        private final int[] entrances;
+        
+        /* For each entrance, the cells that it has an edge to, which are
+         * other entrances of the cluster or cells across its border, and
+         * the cost of each edge.
+         */
+        private final int[][] targets;
+        private final int[][] costs;
+        
+        /**
+         * @param entrances is the entrance cells of the cluster.
+         * @param targets is the cells that each entrance has an edge to.
+         * @param costs is the cost of each edge.
+         */
+        private Cluster(int[] entrances, int[][] targets, int[][] costs)
+        {
+            this.entrances = entrances;
+            this.targets = targets;
+            this.costs = costs;
+        }
+        
+        /**
+         * @param cell is the index of a cell.
+         * @return the number of the entrance at the cell, or -1 if it isn't
+         * an entrance.
+         */
+        private int find(int cell)
+        {
+            for (int i = 0; i < entrances.length; i++)
+            {
+                if (entrances[i] == cell)
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+    
+    private final Grid grid;
+    private final CostScale scale;
+    private final int cluster_size;
+    private final int cluster_cols;
+    
+    //What the robot believes about the map, and the route it plans to take.
+    private final SearchState world;
+    
+    //Answers the robot's questions about the way to the goal.
+    private final Guide guide;
+    private final ArrayList<Integer> route;
+    private final ArrayList<Integer> path;
+    
+    /* Every cluster's entrances and edges, or null where they haven't been
+     * worked out since the cluster last changed.
+     */
+    private final Cluster[] clusters;
+    
+    //The clusters that the refinement of a route may search.
+    private final boolean[] corridor;
+    
+    //The search of the entrance graph, with h holding the cost so far.
+    private final SearchState nodes;
+    private final OpenList node_list;
+    
+    //Searches within one cluster, with h holding the cost to the source.
+    private final SearchState local;
+    private final OpenList local_list;
+    
+    //Scratch space for finding the neighbors of a cell.
+    private final int[] neighbors;
+    
+    private int robot;
+    private int goal;
+    
+    //Whether cells have changed since the last plan from scratch.
+    private boolean changed;
+    
+    //How much of the planner's progress execute writes to its output file.
+    private TraceMode trace_mode;
+    
+    //Records every step while execute is running.
+    private Trace trace;
+    
+    //The number of states processed since the last call to plan.
+    private int expansions;
+    
+    //Receives the planner's metrics, or null if they aren't being kept.
+    private PlannerMetrics metrics;
+    
+    /**
+     * Plan over an already loaded map with costs in CostScale.TENTHS and
+     * clusters of DEFAULT_CLUSTER_SIZE.
+     * @param grid is the map of the world to use.
+     */
+    public HierarchicalPlanner(Grid grid)
+    {
+        this(grid, CostScale.TENTHS, DEFAULT_CLUSTER_SIZE);
+    }
+    
+    /**
+     * Plan over an already loaded map.
+     * @param grid is the map of the world to use.
+     * @param scale is the scale of every path cost.
+     * @param cluster_size is the width and height of a cluster, in cells
+     * (at least 2).  Bigger clusters give better routes and smaller
+     * entrance graphs, but cost more to work out again after a change.
+     */
+    public HierarchicalPlanner(Grid grid, CostScale scale, int cluster_size)
+    {
+        this(grid, scale, cluster_size, Neighborhood.EIGHT);
+    }
+    
+    /**
+     * Plan over an already loaded map.
+     * @param grid is the map of the world to use.
+     * @param scale is the scale of every path cost.
+     * @param cluster_size is the width and height of a cluster, in cells
+     * (at least 2).
+     * @param neighborhood is the moves that the robot can make.
+     */
+    public HierarchicalPlanner(Grid grid, CostScale scale, int cluster_size,
+                               Neighborhood neighborhood)
+    {
+        if (cluster_size < 2)
+        {
+            throw new IllegalArgumentException(
+                "A cluster must be at least 2 cells wide, not " +
+                cluster_size);
+        }
+        this.grid = grid;
+        this.scale = scale;
+        this.cluster_size = cluster_size;
+        cluster_cols = (grid.getCols() + cluster_size - 1) / cluster_size;
+        int cluster_rows = (grid.getRows() + cluster_size - 1) / cluster_size;
+        clusters = new Cluster[cluster_rows * cluster_cols];
+        corridor = new boolean[clusters.length];
+        world = new SearchState(grid, scale, neighborhood);
+        guide = new Guide(grid, world);
+        nodes = new SearchState(grid, scale);
+        node_list = new OpenList(grid);
+        local = new SearchState(grid, scale);
+        local_list = new OpenList(grid);
+        route = new ArrayList<>();
+        path = new ArrayList<>();
+        neighbors = new int[Grid.DIRECTIONS];
+        trace_mode = TraceMode.FULL;
+        trace = Trace.OFF;
+        robot = grid.getStart();
+        goal = grid.getGoal();
+    }
+    
+    /**
+     * @return the map that this HierarchicalPlanner plans over.
+     */
+    @Override
+    public Grid getGrid()
+    {
+        return grid;
+    }
+    
+    /**
+     * Get a Node view of a cell, showing the planned route through it.
+     * @param row is the row of the cell.
+     * @param col is the column of the cell.
+     * @return the Node for the cell, or null if it is outside of the world.
+     */
+    @Override
+    public Node getNode(int row, int col)
+    {
+        return world.getNode(grid.index(row, col));
+    }
+    
+    /**
+     * @return the cells that the robot moved through during the last call
+     * to execute, starting with the start cell and, if the goal was
+     * reached, ending with the goal.
+     */
+    @Override
+    public int[] getPath()
+    {
+        int[] result = new int[path.size()];
+        for (int i = 0; i < result.length; i++)
+        {
+            result[i] = path.get(i);
+        }
+        return result;
+    }
+    
+    /**
+     * Choose how much of the planner's progress execute writes to its
+     * output file.  The default is TraceMode.FULL.
+     * @param trace_mode is the new trace mode.
+     */
+    @Override
+    public void setTraceMode(TraceMode trace_mode)
+    {
+        this.trace_mode = trace_mode;
+    }
+    
+    /**
+     * Give the robot a sensor, so that after every move execute reports
+     * every hidden obstacle the sensor can see as one batch to updateCells.
+     * Without one, the robot only finds an obstacle when it tries to move
+     * onto it.  The default is none.
+     * @param sensor is the robot's sensor, or null for none.
+     */
+    @Override
+    public void setSensor(Sensor sensor)
+    {
+        guide.setSensor(sensor);
+    }
+    
+    /**
+     * Start or stop keeping metrics.  Every cell processed by a search
+     * within a cluster and every entrance processed by a search of the
+     * entrance graph counts as a LOWER state.
+     * @param metrics receives the planner's metrics from now on, or null to
+     * stop keeping them.
+     */
+    @Override
+    public void setMetrics(PlannerMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * @return the number of cells and entrances processed since the last
+     * call to plan, including any replanning since.
+     */
+    @Override
+    public int getExpansions()
+    {
+        return expansions;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the number of the cluster that the cell is in.
+     */
+    private int clusterOf(int cell)
+    {
+        return grid.getRow(cell) / cluster_size * cluster_cols +
+               grid.getCol(cell) / cluster_size;
+    }
+    
+    /**
+     * Count a processed state.
+     */
+    private void processed()
+    {
+        expansions++;
+        if (metrics != null)
+        {
+            metrics.processed(false);
+        }
+    }
+    
+    /**
+     * Find the cheapest path from a cell to every other cell of its cluster
+     * without leaving the cluster, stopping early once every target is
+     * found.  Afterwards each cell reached is CLOSED in local, with the
+     * cost of its path in h and a backpointer towards the source.
+     * @param source is the cell to search from.
+     * @param targets holds the cells to stop at from targets[first] on, or
+     * none to reach every cell that can be reached.
+     * @param first is the place in targets of the first target.
+     */
+    private void searchCluster(int source, int[] targets, int first)
+    {
+        search(source, targets, first, null, Grid.NO_CELL);
+    }
+    
+    /**
+     * Find the cheapest path from a cell to other cells without leaving
+     * some clusters, as searchCluster does.
+     * @param source is the cell to search from.
+     * @param targets holds the cells to stop at from targets[first] on, or
+     * none to reach every cell that can be reached.
+     * @param first is the place in targets of the first target.
+     * @param within marks the clusters that the search may enter, or is
+     * null to keep it in the source's cluster.
+     * @param aim is a target to lead the search towards with A*, or
+     * Grid.NO_CELL to search evenly in every direction.
+     */
+    private void search(int source, int[] targets, int first,
+                        boolean[] within, int aim)
+    {
+        int remaining = targets.length - first;
+        int top = grid.getRow(source) / cluster_size * cluster_size;
+        int left = grid.getCol(source) / cluster_size * cluster_size;
+        local.reset();
+        local_list.clear();
+        local.setH(source, 0);
+        local.setState(source, Node.OPEN);
+        local_list.insert(source, 0, 0, 0);
+        while (!local_list.isEmpty())
+        {
+            int x = local_list.poll();
+            local.setState(x, Node.CLOSED);
+            processed();
+            for (int i = first; remaining > 0 && i < targets.length; i++)
+            {
+                if (targets[i] == x && --remaining == 0)
+                {
+                    return;
+                }
+            }
+            
+            world.getNeighbors(x, neighbors);
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
+            {
+                int y = neighbors[d];
+                if (y == Grid.NO_CELL || local.getState(y) == Node.CLOSED)
+                {
+                    continue;
+                }
+                if (within != null ? !within[clusterOf(y)] :
+                    grid.getRow(y) - top >= cluster_size ||
+                    grid.getRow(y) < top ||
+                    grid.getCol(y) - left >= cluster_size ||
+                    grid.getCol(y) < left)
+                {
+                    continue;
+                }
+                int cost = world.cost(x, y, d);
+                if (cost == CostScale.INFINITY)
+                {
+                    continue;
+                }
+                int h_new = CostScale.add(local.getH(x), cost);
+                if (local.getState(y) == Node.NEW || h_new < local.getH(y))
+                {
+                    local.setH(y, h_new);
+                    local.setBackpointer(y, x);
+                    local.setState(y, Node.OPEN);
+                    if (aim == Grid.NO_CELL)
+                    {
+                        local_list.insert(y, h_new, h_new, 0);
+                    }
+                    else
+                    {
+                        //Among equal keys, take the cell nearest the aim.
+                        int rest = world.distance(y, aim);
+                        local_list.insert(y, CostScale.add(h_new, rest),
+                                          rest, 0);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * @param id is the number of a cluster.
+     * @return the cluster's entrances and edges, working them out first if
+     * they aren't known.
+     */
+    private Cluster cluster(int id)
+    {
+        if (clusters[id] == null)
+        {
+            clusters[id] = build(id);
+        }
+        return clusters[id];
+    }
+    
+    /**
+     * Find a cluster's entrances, the crossing out of each one, and the
+     * cheapest path within the cluster between each pair of them.
+     * @param id is the number of the cluster.
+     * @return the cluster's entrances and edges.
+     */
+    private Cluster build(int id)
+    {
+        int cols = grid.getCols();
+        int top = id / cluster_cols * cluster_size;
+        int left = id % cluster_cols * cluster_size;
+        int height = Math.min(cluster_size, grid.getRows() - top);
+        int width = Math.min(cluster_size, cols - left);
+        int bottom = top + height - 1;
+        int right = left + width - 1;
+        
+        /* Each crossing is three numbers: the entrance's place in the list
+         * of entrances, the cell across the border, and the cost.  A cell
+         * has at most two crossings on each side that it is on.
+         */
+        int[] entrances = new int[4 * cluster_size];
+        int[] crossings = new int[3 * 2 * 4 * cluster_size];
+        int[] counts = new int[2];
+        if (top > 0)
+        {
+            addEntrances(grid.index(top, left), 1, width, -cols, UP,
+                         entrances, crossings, counts);
+        }
+        if (bottom < grid.getRows() - 1)
+        {
+            addEntrances(grid.index(bottom, left), 1, width, cols, DOWN,
+                         entrances, crossings, counts);
+        }
+        if (left > 0)
+        {
+            addEntrances(grid.index(top, left), cols, height, -1, LEFT,
+                         entrances, crossings, counts);
+        }
+        if (right < cols - 1)
+        {
+            addEntrances(grid.index(top, right), cols, height, 1, RIGHT,
+                         entrances, crossings, counts);
+        }
+        int count = counts[0];
+        entrances = Arrays.copyOf(entrances, count);
+        
+        /* Join every pair of entrances that can reach each other.  A path
+         * costs the same both ways, so each search only has to find the
+         * entrances after its own.
+         */
+        int[][] paths = new int[count][count];
+        for (int i = 0; i < count - 1; i++)
+        {
+            searchCluster(entrances[i], entrances, i + 1);
+            for (int j = i + 1; j < count; j++)
+            {
+                paths[i][j] = local.getState(entrances[j]) == Node.CLOSED ?
+                              local.getH(entrances[j]) : CostScale.INFINITY;
+                paths[j][i] = paths[i][j];
+            }
+        }
+        int[][] targets = new int[count][];
+        int[][] costs = new int[count][];
+        for (int i = 0; i < count; i++)
+        {
+            int edges = 0;
+            int[] edge_targets = new int[count + counts[1] / 3];
+            int[] edge_costs = new int[count + counts[1] / 3];
+            for (int j = 0; j < count; j++)
+            {
+                if (j != i && paths[i][j] != CostScale.INFINITY)
+                {
+                    edge_targets[edges] = entrances[j];
+                    edge_costs[edges++] = paths[i][j];
+                }
+            }
+            for (int c = 0; c < counts[1]; c += 3)
+            {
+                if (crossings[c] == i)
+                {
+                    edge_targets[edges] = crossings[c + 1];
+                    edge_costs[edges++] = crossings[c + 2];
+                }
+            }
+            targets[i] = Arrays.copyOf(edge_targets, edges);
+            costs[i] = Arrays.copyOf(edge_costs, edges);
+        }
+        return new Cluster(entrances, targets, costs);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return true if the robot believes that it can enter the cell.
+     */
+    private boolean isOpen(int cell)
+    {
+        return !world.isBlocked(cell);
+    }
+    
+    /**
+     * Put entrances along one side of a cluster: one in the middle of each
+     * run of cells that are open on both sides of the border, or one at
+     * each end and more between them if the run is long.  A diagonal move
+     * across the border that no run can stand in for, because both cells
+     * beside it are blocked, gets an entrance of its own.  The cluster
+     * across the border finds the same runs and moves, so the entrances on
+     * both sides always line up.
+     * @param first is the cell at the start of the side, in the cluster.
+     * @param step is the index offset from one cell of the side to the
+     * next: 1 along the top or bottom, or the number of columns along the
+     * left or right.
+     * @param length is the number of cells along the side.
+     * @param across is the index offset to the cell across the border.
+     * @param direction is the direction across the border.
+     * @param entrances receives the entrance cells.
+     * @param crossings receives the crossings out of each entrance.
+     * @param counts holds the number of entrances and the number of
+     * crossing numbers used so far, and is updated.
+     */
+    private void addEntrances(int first, int step, int length, int across,
+                              int direction, int[] entrances,
+                              int[] crossings, int[] counts)
+    {
+        int run = 0;
+        for (int i = 0; i <= length; i++)
+        {
+            int cell = first + i * step;
+            if (i < length)
+            {
+                addDiagonals(cell, i, step, length, direction, entrances,
+                             crossings, counts);
+                if (isOpen(cell) && isOpen(cell + across))
+                {
+                    run++;
+                    continue;
+                }
+            }
+            if (run >= LONG_RUN)
+            {
+                for (int j = run; j > ENTRANCE_SPACING / 2;
+                     j -= ENTRANCE_SPACING)
+                {
+                    addEntrance(cell - j * step, cell - j * step + across,
+                                direction, entrances, crossings, counts);
+                }
+                addEntrance(cell - step, cell - step + across, direction,
+                            entrances, crossings, counts);
+            }
+            else if (run > 0)
+            {
+                int middle = cell - (run + 1) / 2 * step;
+                addEntrance(middle, middle + across, direction, entrances,
+                            crossings, counts);
+            }
+            run = 0;
+        }
+    }
+    
+    /**
+     * Add an entrance for each diagonal move from a cell across the border
+     * where both cells beside the move are blocked, if the Neighborhood
+     * lets diagonals cut corners at all.  A move past the end
+     * of the side goes to the cluster across the corner; only the top and
+     * bottom sides add those, so that they aren't added twice.
+     * @param cell is a cell of the side.
+     * @param i is the place of the cell along the side.
+     * @param step is the index offset from one cell of the side to the
+     * next.
+     * @param length is the number of cells along the side.
+     * @param direction is the direction across the border.
+     * @param entrances receives the entrance cells.
+     * @param crossings receives the crossings out of each entrance.
+     * @param counts holds the number of entrances and the number of
+     * crossing numbers used so far, and is updated.
+     */
+    private void addDiagonals(int cell, int i, int step, int length,
+                              int direction, int[] entrances,
+                              int[] crossings, int[] counts)
+    {
+        if (!isOpen(cell) || !world.getNeighborhood().cutsCorners())
+        {
+            return;
+        }
+        grid.getNeighbors(cell, neighbors);
+        int straight = neighbors[direction];
+        int before = neighbors[step == 1 ? LEFT : UP];
+        int after = neighbors[step == 1 ? RIGHT : DOWN];
+        if (isOpen(straight))
+        {
+            return;
+        }
+        if (before != Grid.NO_CELL && (step == 1 || i > 0) &&
+            !isOpen(before) && isOpen(straight - step))
+        {
+            addEntrance(cell, straight - step,
+                        grid.direction(cell, straight - step), entrances,
+                        crossings, counts);
+        }
+        if (after != Grid.NO_CELL && (step == 1 || i < length - 1) &&
+            !isOpen(after) && isOpen(straight + step))
+        {
+            addEntrance(cell, straight + step,
+                        grid.direction(cell, straight + step), entrances,
+                        crossings, counts);
+        }
+    }
+    
+    /**
+     * Add an entrance, unless the cell already is one, and a crossing out
+     * of it.
+     * @param cell is the entrance cell.
+     * @param target is the cell across the border.
+     * @param direction is the direction from the entrance to the target.
+     * @param entrances receives the entrance cell.
+     * @param crossings receives the crossing.
+     * @param counts holds the number of entrances and the number of
+     * crossing numbers used so far, and is updated.
+     */
+    private void addEntrance(int cell, int target, int direction,
+                             int[] entrances, int[] crossings, int[] counts)
+    {
+        int i = 0;
+        while (i < counts[0] && entrances[i] != cell)
+        {
+            i++;
+        }
+        if (i == counts[0])
+        {
+            entrances[counts[0]++] = cell;
+        }
+        crossings[counts[1]++] = i;
+        crossings[counts[1]++] = target;
+        crossings[counts[1]++] = world.cost(cell, target, direction);
+    }
+    
+    /**
+     * Offer the search of the entrance graph a path to a node.
+     * @param cell is the node.
+     * @param cost is the cost of the path from the robot to the node.
+     * @param parent is the node that the path comes from, or Grid.NO_CELL
+     * if it comes straight from the robot.
+     */
+    private void relax(int cell, int cost, int parent)
+    {
+        int state = nodes.getState(cell);
+        if (state == Node.CLOSED ||
+            (state == Node.OPEN && cost >= nodes.getH(cell)))
+        {
+            return;
+        }
+        nodes.setH(cell, cost);
+        nodes.setBackpointer(cell, parent);
+        nodes.setState(cell, Node.OPEN);
+        node_list.insert(cell,
+                         CostScale.add(cost, world.distance(cell, goal)),
+                         cost, 0);
+        if (metrics != null)
+        {
+            metrics.inserted(state, node_list.size());
+        }
+    }
+    
+    /**
+     * Search the entrance graph from the robot to the goal with A*.
+     * @return true if the goal was reached.
+     */
+    private boolean searchEntrances()
+    {
+        nodes.reset();
+        node_list.clear();
+        int goal_cluster = clusterOf(goal);
+        Cluster goal_entrances = cluster(goal_cluster);
+        Cluster robot_entrances = cluster(clusterOf(robot));
+        
+        //The cost from each entrance of the goal's cluster to the goal.
+        searchCluster(goal, goal_entrances.entrances, 0);
+        int[] goal_costs = new int[goal_entrances.entrances.length];
+        for (int i = 0; i < goal_costs.length; i++)
+        {
+            int cell = goal_entrances.entrances[i];
+            goal_costs[i] = local.getState(cell) == Node.CLOSED ?
+                            local.getH(cell) : CostScale.INFINITY;
+        }
+        
+        //Start from the entrances that the robot can reach in its cluster.
+        searchCluster(robot, EVERY_CELL, 0);
+        for (int cell : robot_entrances.entrances)
+        {
+            if (local.getState(cell) == Node.CLOSED)
+            {
+                relax(cell, local.getH(cell), Grid.NO_CELL);
+            }
+        }
+        if (local.getState(goal) == Node.CLOSED)
+        {
+            relax(goal, local.getH(goal), Grid.NO_CELL);
+        }
+        
+        while (!node_list.isEmpty())
+        {
+            int x = node_list.poll();
+            nodes.setState(x, Node.CLOSED);
+            processed();
+            if (x == goal)
+            {
+                return true;
+            }
+            int id = clusterOf(x);
+            Cluster entrances = cluster(id);
+            int i = entrances.find(x);
+            int cost = nodes.getH(x);
+            for (int e = 0; e < entrances.targets[i].length; e++)
+            {
+                relax(entrances.targets[i][e],
+                      CostScale.add(cost, entrances.costs[i][e]), x);
+            }
+            if (id == goal_cluster && goal_costs[i] != CostScale.INFINITY)
+            {
+                relax(goal, CostScale.add(cost, goal_costs[i]), x);
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Mark or unmark a cluster and the clusters around it as part of the
+     * corridor that refines a route.
+     * @param id is the number of the cluster.
+     * @param marked is true to mark the clusters, or false to unmark them.
+     */
+    private void widen(int id, boolean marked)
+    {
+        int row = id / cluster_cols;
+        int col = id % cluster_cols;
+        int rows = clusters.length / cluster_cols;
+        for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1);
+             r++)
+        {
+            for (int c = Math.max(0, col - 1);
+                 c <= Math.min(cluster_cols - 1, col + 1); c++)
+            {
+                corridor[r * cluster_cols + c] = marked;
+            }
+        }
+    }
+    
+    /**
+     * Plan a route from the robot to the goal: search the entrance graph,
+     * then refine the coarse route into cells.  The old route
+     * is forgotten first.
+     * @return true if there is a route.
+     */
+    private boolean replan()
+    {
+        for (int cell : route)
+        {
+            world.setBackpointer(cell, Grid.NO_CELL);
+            world.setState(cell, Node.NEW);
+            world.setH(cell, 0);
+        }
+        route.clear();
+        if (!searchEntrances())
+        {
+            //Show that the robot can't reach the goal.
+            route.add(robot);
+            world.setH(robot, CostScale.INFINITY);
+            return false;
+        }
+        
+        /* Refine the coarse route with one search from the goal to the
+         * robot through every cluster that it passes and the clusters
+         * around them.  The coarse route is one of the paths searched, so
+         * the route found costs no more, and it can leave the entrances
+         * wherever a path that doesn't use them is cheaper.
+         */
+        for (int cell = goal; cell != Grid.NO_CELL;
+             cell = nodes.getBackpointer(cell))
+        {
+            widen(clusterOf(cell), true);
+        }
+        widen(clusterOf(robot), true);
+        search(goal, new int[] {robot}, 0, corridor, robot);
+        for (int cell = goal; cell != Grid.NO_CELL;
+             cell = nodes.getBackpointer(cell))
+        {
+            widen(clusterOf(cell), false);
+        }
+        widen(clusterOf(robot), false);
+        for (int cell = robot; cell != Grid.NO_CELL;
+             cell = local.getBackpointer(cell))
+        {
+            route.add(cell);
+        }
+        
+        //Point every cell of the route at the next, with its cost to go.
+        int cost = 0;
+        world.setH(goal, 0);
+        world.setState(goal, Node.CLOSED);
+        for (int i = route.size() - 2; i >= 0; i--)
+        {
+            int cell = route.get(i);
+            int next = route.get(i + 1);
+            cost = CostScale.add(cost, world.cost(cell, next,
+                                                  grid.direction(cell, next)));
+            world.setBackpointer(cell, next);
+            world.setH(cell, cost);
+            world.setState(cell, Node.CLOSED);
+        }
+        return true;
+    }
+    
+    /**
+     * Plan a path from the given start to the given goal without moving the
+     * robot.  Every cell change reported since the last plan is forgotten
+     * first, so the same HierarchicalPlanner can be used for any number of
+     * start and goal pairs.  Clusters that the last plan worked out are
+     * kept unless cells had changed.
+     * @param start is the cell where the robot is.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if there is a path from start to goal.
+     * @throws IOException if the trace can't be written.
+     */
+    @Override
+    public boolean plan(int start, int goal) throws IOException
+    {
+        long start_time = metrics != null ? System.nanoTime() : 0;
+        world.reset();
+        guide.reset();
+        route.clear();
+        if (changed)
+        {
+            Arrays.fill(clusters, null);
+            changed = false;
+        }
+        robot = start;
+        this.goal = goal;
+        expansions = 0;
+        
+        boolean found = replan();
+        
+        //Add the planned world to the output file.
+        trace.write(robot);
+        if (metrics != null)
+        {
+            metrics.planFinished(System.nanoTime() - start_time,
+                                 nodes.getTouchedCount());
+        }
+        return found;
+    }
+    
+    /**
+     * Tell the planner that the robot has moved.
+     * @param cell is the cell that the robot now occupies.
+     */
+    @Override
+    public void setRobot(int cell)
+    {
+        robot = cell;
+    }
+    
+    /**
+     * @return the cell that the robot should move to next, or Grid.NO_CELL
+     * if it doesn't have one.
+     */
+    @Override
+    public int getNextStep()
+    {
+        return guide.getNextStep(robot, goal);
+    }
+    
+    /**
+     * Get every cell of the path that the planner plans for the robot now.
+     * The path is cached, and only walked again when a backpointer on it
+     * changes or the robot leaves it, so it is cheap to ask for every tick.
+     * @return the cells from the robot to the goal, both included, or an
+     * empty array if there is no path.  The array mustn't be changed.
+     */
+    @Override
+    public int[] getPlannedPath()
+    {
+        return guide.getPlannedPath(robot, goal);
+    }
+    
+    /**
+     * Get the planned path smoothed into any-angle waypoints, each joined
+     * to the next by a straight line that crosses no known obstacle and no
+     * heavier ground than the part of the path that it replaces.
+     * @return the waypoints from the robot to the goal, both included, or
+     * an empty array if there is no path.  The array mustn't be changed.
+     */
+    @Override
+    public int[] getSmoothedPath()
+    {
+        return guide.getSmoothedPath(robot, goal);
+    }
+    
+    /**
+     * Apply a batch of cell changes reported by the robot's sensors, then
+     * plan a new route from the robot.  Only the clusters around changed
+     * cells have their entrances worked out again.
+     * @param batch is the cells that changed since the last update.
+     * @return true if there is still a path from the robot to the goal.
+     * @throws IOException if the trace can't be written.
+     */
+    @Override
+    public boolean updateCells(Iterable<CellUpdate> batch) throws IOException
+    {
+        long start_time = metrics != null ? System.nanoTime() : 0;
+        for (CellUpdate update : batch)
+        {
+            int cell = update.getCell();
+            char old_type = world.getType(cell);
+            if (old_type == update.getType())
+            {
+                continue;
+            }
+            world.setType(cell, update.getType());
+            guide.changed(cell, old_type);
+            changed = true;
+            
+            /* A cell on a border changes the entrances of the clusters on
+             * both sides of it.
+             */
+            clusters[clusterOf(cell)] = null;
+            grid.getNeighbors(cell, neighbors);
+            for (int d = 0; d < Grid.DIRECTIONS; d++)
+            {
+                if (neighbors[d] != Grid.NO_CELL)
+                {
+                    clusters[clusterOf(neighbors[d])] = null;
+                }
+            }
+        }
+        
+        //Behind a wall around the robot or the goal, there is no route.
+        boolean found = !guide.isCutOff(robot, goal) && replan();
+        if (metrics != null)
+        {
+            metrics.replanFinished(System.nanoTime() - start_time,
+                                   nodes.getTouchedCount());
+        }
+        return found;
+    }
+    
+    /**
+     * Do the hierarchical pathing algorithm from the map's start to its
+     * goal.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     */
+    @Override
+    public boolean execute()
+    {
+        return execute(grid.getStart(), grid.getGoal());
+    }
+    
+    /**
+     * Do the hierarchical pathing algorithm from the given start to the
+     * given goal: plan, then move the robot along the route to the goal,
+     * replanning whenever it finds its next cell blocked.  Each step is
+     * written to the output file for the current trace mode.
+     * @param start is the cell where the robot starts.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     */
+    @Override
+    public boolean execute(int start, int goal)
+    {
+        path.clear();
+        
+        boolean reached_goal = false;
+        try
+        {
+            //Allocate a file for output.
+            trace = trace_mode.open(world);
+            try
+            {
+                reached_goal = traverse(start, goal);
+            }
+            finally
+            {
+                trace.close();
+                trace = Trace.OFF;
+            }
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(HierarchicalPlanner.class.getName())
+                  .log(Level.SEVERE, null, ex);
+        }
+        
+        if (!reached_goal)
+        {
+            System.err.println("No possible path.");
+        }
+        return reached_goal;
+    }
+    
+    /**
+     * Plan, then move the robot along the route to the goal, replanning
+     * whenever it finds its next cell blocked.
+     * @param start is the cell where the robot starts.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     * @throws IOException if the trace can't be written.
+     */
+    private boolean traverse(int start, int goal) throws IOException
+    {
+        path.add(start);
+        
+        if (!plan(start, goal) || !guide.sense(this, robot))
+        {
+            return false;
+        }
+        
+        while (robot != goal)
+        {
+            int next = getNextStep();
+            if (next == Grid.NO_CELL)
+            {
+                return false;
+            }
+            if (world.getType(next) != Node.BLOCKED &&
+                world.getType(next) != Node.UNKNOWN_BLOCKED)
+            {
+                setRobot(next);
+                path.add(robot);
+                
+                //Add the updated world to the output file.
+                trace.write(robot);
+                if (!guide.sense(this, robot))
+                {
+                    return false;
+                }
+            }
+            //The robot found its next cell blocked, so find a new route.
+            else if (!updateCells(
+                          Collections.singletonList(CellUpdate.blocked(next))))
+            {
+                return false;
+            }
+        }
+        
+        //Print the path up to the goal.
+        grid.printPath(getPath());
+        return true;
+    }
+    
+    /**
+     * @param args the map file, map3.txt if none is given, and optionally
+     * the cluster size.
+     */
+    public static void main(String[] args)
+    {
+        try
+        {
+            Grid grid = MapLoader.load(new File(
+                args.length > 0 ? args[0] : "map3.txt"));
+            int cluster_size = args.length > 1 ? Integer.parseInt(args[1]) :
+                                                 DEFAULT_CLUSTER_SIZE;
+            if (!new HierarchicalPlanner(grid, CostScale.TENTHS,
+                                         cluster_size).execute())
+            {
+                System.exit(1);
+            }
+        }
+        catch (IOException | IllegalArgumentException ex)
+        {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package d_star;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Generates maps of any size from a seed, so that the same map can be made
+ * again for benchmarks and experiments without storing it.  The start is
+ * near the bottom-left corner and the goal is near the top-right corner.
+ * @author Kevin Dittmar
+ */
+public class MapGenerator
+{
+    /**
+     * Generate a map.
+     * @param layout is the kind of map to generate.
+     * @param rows is the number of rows in the map (at least 5).
+     * @param cols is the number of columns in the map (at least 5).
+     * @param seed chooses the map; the same arguments always give the same
+     * map.
+     * @return the generated map, with its start and goal set.
+     */
+    public static Grid generate(MapLayout layout, int rows, int cols,
+                                long seed)
+    {
+        if (rows < 5 || cols < 5)
+        {
+            throw new IllegalArgumentException(
+                "A generated map must be at least 5x5, not " + rows + "x" +
+                cols);
+        }
+        Grid grid = new Grid(rows, cols);
+        layout.fill(grid, new Random(seed));
+        
+        /* Odd rows and columns are always corridors in a maze, so use them
+         * for every layout.
+         */
+        int start = grid.index(2 * ((rows - 1) / 2) - 1, 1);
+        int goal = grid.index(1, 2 * ((cols - 1) / 2) - 1);
+        grid.setType(start, Node.START);
+        grid.setType(goal, Node.GOAL);
+        return grid;
+    }
+    
+    /**
+     * Write a map in the format that MapLoader reads.
+     * @param grid is the map to write.
+     * @param writer receives the map; it is not closed.
+     * @throws IOException if the map can't be written.
+     */
+    public static void write(Grid grid, Writer writer) throws IOException
+    {
+        char[] line = new char[grid.getCols()];
+        for (int row = 0; row < grid.getRows(); row++)
+        {
+            for (int col = 0; col < line.length; col++)
+            {
+                line[col] = grid.getType(grid.index(row, col));
+            }
+            writer.write(line);
+            writer.write('\n');
+        }
+    }
+    
+    /**
+     * Generate a map and save it to a file.
+     * @param args the layout (RANDOM, MAZE, ROOMS or TERRAIN), the number of
+     * rows, the number of columns, the seed and the map file to write.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 5)
+        {
+            System.err.println("Usage: java d_star.MapGenerator " +
+                               "RANDOM|MAZE|ROOMS|TERRAIN rows cols seed " +
+                               "map.txt");
+            System.exit(1);
+        }
+        try (Writer writer = new BufferedWriter(new FileWriter(args[4])))
+        {
+            Grid grid = generate(MapLayout.valueOf(args[0]),
+                                 Integer.parseInt(args[1]),
+                                 Integer.parseInt(args[2]),
+                                 Long.parseLong(args[3]));
+            write(grid, writer);
+        }
+        catch (IOException | IllegalArgumentException ex)
+        {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
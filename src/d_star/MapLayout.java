@@ -0,0 +1,243 @@
+package d_star;
+
+import java.util.Random;
+
+/**
+ * The kinds of map that MapGenerator can generate.
+ * @author Kevin Dittmar
+ */
+public enum MapLayout
+{
+    /**
+     * Open ground with a fifth of the cells BLOCKED and one cell in twenty
+     * UNKNOWN_BLOCKED, scattered at random.
+     */
+    RANDOM,
+    
+    /**
+     * A maze with exactly one path between any two of its corridors, and
+     * walls one cell thick.
+     */
+    MAZE,
+    
+    /**
+     * Square rooms separated by walls, with a doorway through every wall.
+     * A quarter of the doorways are UNKNOWN_BLOCKED.
+     */
+    ROOMS,
+    
+    /**
+     * Patches of terrain of random weights from 1 to 9, with one cell in
+     * twenty BLOCKED.
+     */
+    TERRAIN;
+    
+    //The size of a room, including one of its walls.
+    private static final int ROOM_SIZE = 16;
+    
+    //The width of a doorway.
+    private static final int DOOR_SIZE = 2;
+    
+    //The size of a patch of terrain.
+    private static final int PATCH_SIZE = 8;
+    
+    /**
+     * Fill an UNRESTRICTED grid with this layout.
+     * @param grid is the grid to fill.
+     * @param random chooses where everything goes.
+     */
+    void fill(Grid grid, Random random)
+    {
+        switch (this)
+        {
+            case MAZE:
+                fillMaze(grid, random);
+                break;
+            case ROOMS:
+                fillRooms(grid, random);
+                break;
+            case TERRAIN:
+                fillTerrain(grid, random);
+                break;
+            default:
+                fillRandom(grid, random);
+                break;
+        }
+    }
+    
+    /**
+     * Block and unknown-block cells at random.
+     * @param grid is the grid to fill.
+     * @param random chooses which cells are blocked.
+     */
+    private static void fillRandom(Grid grid, Random random)
+    {
+        for (int cell = 0; cell < grid.size(); cell++)
+        {
+            int roll = random.nextInt(20);
+            if (roll < 4)
+            {
+                grid.setType(cell, Node.BLOCKED);
+            }
+            else if (roll == 4)
+            {
+                grid.setType(cell, Node.UNKNOWN_BLOCKED);
+            }
+        }
+    }
+    
+    /**
+     * Carve a maze with a randomized depth-first search.  The maze's
+     * corridors are the cells with an odd row and an odd column, plus the
+     * cells carved between them; everything else is wall.
+     * @param grid is the grid to fill.
+     * @param random chooses the order in which corridors are carved.
+     */
+    private static void fillMaze(Grid grid, Random random)
+    {
+        int cols = grid.getCols();
+        int maze_rows = (grid.getRows() - 1) / 2;
+        int maze_cols = (cols - 1) / 2;
+        grid.fill(0, 0, grid.getRows(), cols, Node.BLOCKED);
+        if (maze_rows == 0 || maze_cols == 0)
+        {
+            return;
+        }
+        
+        boolean[] visited = new boolean[maze_rows * maze_cols];
+        int[] stack = new int[maze_rows * maze_cols];
+        int[] choices = new int[4];
+        int top = 0;
+        stack[top++] = 0;
+        visited[0] = true;
+        grid.setType(grid.index(1, 1), Node.UNRESTRICTED);
+        while (top > 0)
+        {
+            int current = stack[top - 1];
+            int row = current / maze_cols;
+            int col = current % maze_cols;
+            
+            //Find the neighboring maze cells that haven't been carved yet.
+            int count = 0;
+            if (row > 0 && !visited[current - maze_cols])
+            {
+                choices[count++] = current - maze_cols;
+            }
+            if (row < maze_rows - 1 && !visited[current + maze_cols])
+            {
+                choices[count++] = current + maze_cols;
+            }
+            if (col > 0 && !visited[current - 1])
+            {
+                choices[count++] = current - 1;
+            }
+            if (col < maze_cols - 1 && !visited[current + 1])
+            {
+                choices[count++] = current + 1;
+            }
+            if (count == 0)
+            {
+                top--;
+                continue;
+            }
+            
+            //Knock down the wall to one of them and carry on from there.
+            int next = choices[random.nextInt(count)];
+            int next_row = next / maze_cols;
+            int next_col = next % maze_cols;
+            grid.setType(grid.index(row + next_row + 1, col + next_col + 1),
+                         Node.UNRESTRICTED);
+            grid.setType(grid.index(2 * next_row + 1, 2 * next_col + 1),
+                         Node.UNRESTRICTED);
+            visited[next] = true;
+            stack[top++] = next;
+        }
+    }
+    
+    /**
+     * Divide the grid into rooms and put a doorway at a random place in
+     * every wall between two rooms.
+     * @param grid is the grid to fill.
+     * @param random chooses where the doorways go and which are unknown.
+     */
+    private static void fillRooms(Grid grid, Random random)
+    {
+        int rows = grid.getRows();
+        int cols = grid.getCols();
+        for (int row = ROOM_SIZE; row < rows; row += ROOM_SIZE)
+        {
+            grid.fill(row, 0, 1, cols, Node.BLOCKED);
+        }
+        for (int col = ROOM_SIZE; col < cols; col += ROOM_SIZE)
+        {
+            grid.fill(0, col, rows, 1, Node.BLOCKED);
+        }
+        
+        for (int top = 0; top < rows; top += ROOM_SIZE)
+        {
+            int height = Math.min(ROOM_SIZE, rows - top);
+            for (int left = 0; left < cols; left += ROOM_SIZE)
+            {
+                int width = Math.min(ROOM_SIZE, cols - left);
+                
+                //A doorway in the room's bottom wall and in its right wall.
+                if (top + ROOM_SIZE < rows && width > DOOR_SIZE + 1)
+                {
+                    int col = left + 1 + random.nextInt(width - DOOR_SIZE);
+                    char door = door(random);
+                    for (int i = 0; i < DOOR_SIZE && col + i < cols; i++)
+                    {
+                        grid.setType(grid.index(top + ROOM_SIZE, col + i),
+                                     door);
+                    }
+                }
+                if (left + ROOM_SIZE < cols && height > DOOR_SIZE + 1)
+                {
+                    int row = top + 1 + random.nextInt(height - DOOR_SIZE);
+                    char door = door(random);
+                    for (int i = 0; i < DOOR_SIZE && row + i < rows; i++)
+                    {
+                        grid.setType(grid.index(row + i, left + ROOM_SIZE),
+                                     door);
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * Divide the grid into square patches, give each patch a random
+     * weight, then block cells at random.
+     * @param grid is the grid to fill.
+     * @param random chooses the weights and which cells are blocked.
+     */
+    private static void fillTerrain(Grid grid, Random random)
+    {
+        int cols = grid.getCols();
+        int patch_cols = (cols + PATCH_SIZE - 1) / PATCH_SIZE;
+        int patch_rows = (grid.getRows() + PATCH_SIZE - 1) / PATCH_SIZE;
+        char[] patches = new char[patch_rows * patch_cols];
+        for (int i = 0; i < patches.length; i++)
+        {
+            patches[i] = Node.terrain(1 + random.nextInt(Node.MAX_WEIGHT));
+        }
+        for (int cell = 0; cell < grid.size(); cell++)
+        {
+            int patch = grid.getRow(cell) / PATCH_SIZE * patch_cols +
+                        grid.getCol(cell) / PATCH_SIZE;
+            grid.setType(cell, random.nextInt(20) == 0 ? Node.BLOCKED :
+                                                         patches[patch]);
+        }
+    }
+    
+    /**
+     * @param random chooses the type of the doorway.
+     * @return UNKNOWN_BLOCKED for a quarter of doorways, UNRESTRICTED for the
+     * rest.
+     */
+    private static char door(Random random)
+    {
+        return random.nextInt(4) == 0 ? Node.UNKNOWN_BLOCKED :
+                                        Node.UNRESTRICTED;
+    }
+}
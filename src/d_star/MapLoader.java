@@ -0,0 +1,192 @@
+package d_star;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads a map file into a Grid.  A map is a rectangular block of the
+ * characters O, B, U, S and G (see the type constants in Node) and the
+ * terrain digits 1 to 9, one line per row, with exactly one S and one G.
+ * 
+ * The file is memory-mapped and every row is copied into the Grid in bulk,
+ * so loading is limited by how fast the file can be read.
+ * @author Kevin Dittmar
+ */
+public class MapLoader
+{
+    //The most bytes mapped at once; big maps are mapped a window at a time.
+    private static final int MAX_WINDOW = 1 << 30;
+    
+    private static final boolean[] VALID_TYPES = new boolean[256];
+    static
+    {
+        VALID_TYPES[Node.UNRESTRICTED] = true;
+        VALID_TYPES[Node.BLOCKED] = true;
+        VALID_TYPES[Node.UNKNOWN_BLOCKED] = true;
+        VALID_TYPES[Node.START] = true;
+        VALID_TYPES[Node.GOAL] = true;
+        for (int weight = 1; weight <= Node.MAX_WEIGHT; weight++)
+        {
+            VALID_TYPES[Node.terrain(weight)] = true;
+        }
+    }
+    
+    /**
+     * Load a map file.
+     * @param file is the map to load.
+     * @return a Grid with the type of every cell set from the map, and its
+     * start and goal set to the S and G cells.
+     * @throws IOException if the file can't be read, or if it isn't
+     * rectangular, contains anything but map characters, or doesn't have
+     * exactly one S and one G.  The message says what is wrong and where.
+     */
+    public static Grid load(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                                                    StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size == 0)
+            {
+                throw error(file, "the map is empty");
+            }
+            
+            //The first line sets the width of the map and the line ending.
+            MappedByteBuffer first = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0,
+                Math.min(size, MAX_WINDOW));
+            int cols = 0;
+            while (cols < first.limit() && !isLineEnd(first.get(cols)))
+            {
+                cols++;
+            }
+            if (cols == 0)
+            {
+                throw error(file, "line 1 is empty");
+            }
+            int line_end = 0;
+            if (cols < first.limit())
+            {
+                line_end = first.get(cols) == '\r' && cols + 1 < first.limit()
+                           && first.get(cols + 1) == '\n' ? 2 : 1;
+            }
+            
+            /* Every row takes up exactly the same number of bytes, except
+             * that the last line ending is optional.
+             */
+            long row_bytes = cols + line_end;
+            long row_count = (size + row_bytes - 1) / row_bytes;
+            if (row_count * cols > Integer.MAX_VALUE)
+            {
+                throw error(file, "the map has more than " +
+                                  Integer.MAX_VALUE + " cells");
+            }
+            int rows = (int)row_count;
+            Grid world = new Grid(rows, cols);
+            byte[] row_types = new byte[cols];
+            
+            //Map whole rows at a time so that no row is split across windows.
+            long rows_per_window = Math.max(1, MAX_WINDOW / row_bytes);
+            int start = Grid.NO_CELL;
+            int goal = Grid.NO_CELL;
+            for (long first_row = 0; first_row < rows;
+                 first_row += rows_per_window)
+            {
+                long offset = first_row * row_bytes;
+                MappedByteBuffer window = channel.map(
+                    FileChannel.MapMode.READ_ONLY, offset,
+                    Math.min(size - offset, rows_per_window * row_bytes));
+                long last_row = Math.min(rows, first_row + rows_per_window);
+                for (long row = first_row; row < last_row; row++)
+                {
+                    int line = (int)row + 1;
+                    if (window.remaining() < cols)
+                    {
+                        throw error(file, "line " + line + " has fewer than " +
+                                          cols + " columns");
+                    }
+                    window.get(row_types);
+                    for (int col = 0; col < cols; col++)
+                    {
+                        byte type = row_types[col];
+                        if (!VALID_TYPES[type & 0xFF])
+                        {
+                            if (isLineEnd(type))
+                            {
+                                throw error(file, "line " + line + " has " +
+                                                  "fewer than " + cols +
+                                                  " columns");
+                            }
+                            throw error(file, "line " + line + ", column " +
+                                              (col + 1) + ": '" + (char)type +
+                                              "' is not one of O, B, U, S, " +
+                                              "G or 1 to 9");
+                        }
+                        if (type == Node.START || type == Node.GOAL)
+                        {
+                            int cell = (int)row * cols + col;
+                            if (type == Node.START && start != Grid.NO_CELL ||
+                                type == Node.GOAL && goal != Grid.NO_CELL)
+                            {
+                                throw error(file, "line " + line + ", column " +
+                                                  (col + 1) + ": more than " +
+                                                  "one '" + (char)type + "'");
+                            }
+                            if (type == Node.START)
+                            {
+                                start = cell;
+                            }
+                            else
+                            {
+                                goal = cell;
+                            }
+                        }
+                    }
+                    world.setTypes((int)row * cols, row_types);
+                    
+                    //Every row but the last must end right after cols columns.
+                    for (int i = 0; i < line_end && window.hasRemaining(); i++)
+                    {
+                        if (!isLineEnd(window.get()))
+                        {
+                            throw error(file, "line " + line + " has more " +
+                                              "than " + cols + " columns");
+                        }
+                    }
+                }
+            }
+            
+            if (start == Grid.NO_CELL)
+            {
+                throw error(file, "there is no start (S)");
+            }
+            if (goal == Grid.NO_CELL)
+            {
+                throw error(file, "there is no goal (G)");
+            }
+            return world;
+        }
+    }
+    
+    /**
+     * @param b is a byte from a map file.
+     * @return true if the byte is part of a line ending.
+     */
+    private static boolean isLineEnd(byte b)
+    {
+        return b == '\n' || b == '\r';
+    }
+    
+    /**
+     * @param file is the map being loaded.
+     * @param message says what is wrong with the map.
+     * @return an exception describing the problem.
+     */
+    private static IOException error(File file, String message)
+    {
+        return new IOException("Invalid map " + file + ": " + message);
+    }
+}
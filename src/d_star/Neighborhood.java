@@ -0,0 +1,67 @@
+package d_star;
+
+/**
+ * Which moves the robot can make from a cell: the cells it can move to in
+ * one step and whether a diagonal step may cut past a blocked corner.  A
+ * SearchState turns its Neighborhood into tables of index offsets and move
+ * costs when it is created, so finding the neighbors of a cell and the
+ * cost of the edge to each one costs the same whichever is chosen.
+ *
+ * With diagonal moves, a diagonal costs CostScale.getDiagonal, the scale's
+ * nearest fraction of the square root of two straight moves, and the
+ * least possible cost between two cells is the octile distance; with
+ * straight moves only, it is the Manhattan distance.
+ * @author Kevin Dittmar
+ */
+public enum Neighborhood
+{
+    /**
+     * Straight moves only, to the four cells that share a side.  Searches
+     * touch fewer edges per state, which suits maps of straight aisles.
+     */
+    FOUR(false, false),
+    
+    /**
+     * Straight and diagonal moves, to all eight surrounding cells, where a
+     * diagonal may cut past blocked corners, even squeezing between two
+     * blocked cells.  This is the default.
+     */
+    EIGHT(true, true),
+    
+    /**
+     * Straight and diagonal moves, where a diagonal is only possible when
+     * neither of the two cells beside it is known to be blocked, so that
+     * the robot never clips a corner that it knows about.
+     */
+    EIGHT_NO_CORNER_CUTTING(true, false);
+    
+    private final boolean diagonals;
+    private final boolean corner_cutting;
+    
+    /**
+     * @param diagonals is true if diagonal moves are possible.
+     * @param corner_cutting is true if a diagonal move may pass a blocked
+     * cell beside it.
+     */
+    Neighborhood(boolean diagonals, boolean corner_cutting)
+    {
+        this.diagonals = diagonals;
+        this.corner_cutting = corner_cutting;
+    }
+    
+    /**
+     * @return true if diagonal moves are possible.
+     */
+    public boolean hasDiagonals()
+    {
+        return diagonals;
+    }
+    
+    /**
+     * @return true if a diagonal move may pass a blocked cell beside it.
+     */
+    public boolean cutsCorners()
+    {
+        return corner_cutting;
+    }
+}
@@ -1,71 +1,122 @@
 package d_star;
 
+import java.util.Arrays;
+
 /**
- *
+ * A lightweight view of a single cell in a SearchState.  A Node holds no
+ * search information of its own; every getter and setter reads or writes
+ * the SearchState that it was created from.
  * @author Kevin Dittmar
  */
-public class Node implements Comparable
+public class Node implements Comparable<Node>
 {
     //Node states
     static final int NEW = 0;
     static final int OPEN = 1;
     static final int CLOSED = 2;
     
-    //Node types
+    /* Node types.  Besides these, the digits 1 to 9 are terrain that is
+     * that many times as expensive to cross as UNRESTRICTED ground.
+     */
     static final char UNRESTRICTED = 'O';
     static final char BLOCKED = 'B';
     static final char UNKNOWN_BLOCKED = 'U';
     static final char START = 'S';
     static final char GOAL = 'G';
+    static final int MAX_WEIGHT = 9;
+    
+    //The weight of every type: its digit for terrain, or 1.
+    private static final int[] WEIGHTS = new int[256];
+    static
+    {
+        Arrays.fill(WEIGHTS, 1);
+        for (int weight = 1; weight <= MAX_WEIGHT; weight++)
+        {
+            WEIGHTS['0' + weight] = weight;
+        }
+    }
     
+    //How an infinite cost is displayed.
     static final float INFINITY = 10000.0f;
-    private static final int UNASSIGNED = 0;
-    
-    private int state;
-    private char type;
-    private Node backpointer;
-    private float h;
-    private float k;
-    private final int row;
-    private final int col;
-    
-    public Node(int row, int col, char type)
-    {
-        this.row = row;
-        this.col = col;
-        this.type = type;
-        this.state = NEW;
-        this.h = UNASSIGNED;
-        this.k = UNASSIGNED;
-        this.backpointer = null;
+    
+    private final SearchState search;
+    private final int index;
+    
+    /**
+     * @param type is one of the type constants, or a terrain digit.
+     * @return how many times as expensive the type is to cross as
+     * UNRESTRICTED ground: the digit for terrain, or 1 for anything else.
+     */
+    static int weight(char type)
+    {
+        return WEIGHTS[type & 0xFF];
+    }
+    
+    /**
+     * @param weight is from 1 to MAX_WEIGHT.
+     * @return the type of terrain with that weight: UNRESTRICTED for 1, or
+     * the weight's digit.
+     */
+    static char terrain(int weight)
+    {
+        return weight == 1 ? UNRESTRICTED : (char)('0' + weight);
+    }
+    
+    Node(SearchState search, int index)
+    {
+        this.search = search;
+        this.index = index;
     }
 
     /**
-     * Comparison for sorting nodes.  Nodes are always sorted by k value.
-     * @param obj some object that should be a Node.
-     * @return -1 if the provided Node is less than the calling Node,
-     * 0 if the provided Node is equal to the calling Node, or 1 if
-     * the provided Node is larger than the calling Node or not a Node at all.
+     * Comparison for sorting nodes.  Nodes are ordered by k value; ties are
+     * broken by position in the world, so the ordering is total and no two
+     * distinct cells compare as equal.
+     * @param node is the Node to compare against.
+     * @return a negative number if this Node comes before the given Node,
+     * 0 if it is the same cell, or a positive number otherwise.
      */
     @Override
-    public int compareTo(Object obj)
+    public int compareTo(Node node)
+    {
+        int result = Integer.compare(search.getK(index),
+                                     node.search.getK(node.index));
+        if (result == 0)
+        {
+            result = Integer.compare(index, node.index);
+        }
+        return result;
+    }
+    
+    /**
+     * Two Nodes are equal if they view the same cell of the same
+     * SearchState.
+     * @param obj is the object to compare against.
+     * @return true if obj is a Node for the same cell.
+     */
+    @Override
+    public boolean equals(Object obj)
     {
         if (obj instanceof Node)
         {
             Node node = (Node)obj;
-            if (this.getK() < node.getK())
-            {
-                return -1;
-            }
-            else if (equals(node.getK(), this.getK()))
-            {
-                return 0;
-            }
+            return node.search == search && node.index == index;
         }
-        /* The given object isn't a node, or it has a bigger K and should
-         * be put to the end of the list.
-         */
-        return 1;
+        return false;
+    }
+    
+    @Override
+    public int hashCode()
+    {
+        return index;
+    }
+    
+    /**
+     * @return the index of this Node's cell in its Grid.
+     */
+    int getIndex()
+    {
+        return index;
     }
     
     /**
@@ -74,7 +125,7 @@ public class Node implements Comparable
      */
     void setBackpointer(Node node)
     {
-        backpointer = node;
+        search.setBackpointer(index, node == null ? Grid.NO_CELL : node.index);
     }
    
     /**
@@ -84,14 +135,7 @@ public class Node implements Comparable
      */
     void setH(float h)
     {
-        if (h >= INFINITY)
-        {
-            this.h = INFINITY;
-        }
-        else
-        {
-            this.h = h;
-        }
+        search.setDisplayH(index, h);
     }
     
     /**
@@ -101,14 +145,7 @@ public class Node implements Comparable
      */
     void setK(float k)
     {
-        if (k >= INFINITY)
-        {
-            this.k = INFINITY;
-        }
-        else
-        {
-            this.k = k;
-        }
+        search.setDisplayK(index, k);
     }
     
     /**
@@ -117,7 +154,7 @@ public class Node implements Comparable
      */
     Node getBackpointer()
     {
-        return backpointer;
+        return search.getNode(search.getBackpointer(index));
     }
     
     /**
@@ -125,7 +162,7 @@ public class Node implements Comparable
      */
     int getState()
     {
-        return state;
+        return search.getState(index);
     }
     
     /**
@@ -136,7 +173,7 @@ public class Node implements Comparable
      */
     void setState(int state)
     {
-        this.state = state;
+        search.setState(index, state);
     }
     
     /**
@@ -145,7 +182,7 @@ public class Node implements Comparable
      */
     char getType()
     {
-        return type;
+        return search.getType(index);
     }
     
     /**
@@ -154,7 +191,7 @@ public class Node implements Comparable
      */
     void blockNode()
     {
-        type = BLOCKED;
+        search.setType(index, BLOCKED);
     }
     /**
      * Get name of Node.
@@ -162,7 +199,7 @@ public class Node implements Comparable
      */
     String getName()
     {
-        return "(" + row + "," + col + ")";
+        return search.getGrid().getName(index);
     }
     
     /**
@@ -171,7 +208,7 @@ public class Node implements Comparable
      */
     float getH()
     {
-        return h;
+        return search.getDisplayH(index);
     }
     
     /**
@@ -180,7 +217,7 @@ public class Node implements Comparable
      */
     float getK()
     {
-        return k;
+        return search.getDisplayK(index);
     }
     
     /**
@@ -188,7 +225,7 @@ public class Node implements Comparable
      */
     int getRow()
     {
-        return row;
+        return search.getGrid().getRow(index);
     }
     
     /**
@@ -196,7 +233,7 @@ public class Node implements Comparable
      */
     int getCol()
     {
-        return col;
+        return search.getGrid().getCol(index);
     }
     
     /**
@@ -209,17 +246,18 @@ public class Node implements Comparable
     public String toString(Node robot)
     {
         String result = "name: " + getName() + "\n";
-        result += "h: " + String.valueOf(h) + "\n";
-        result += "k: " + String.valueOf(k) + "\n";
+        result += "h: " + String.valueOf(getH()) + "\n";
+        result += "k: " + String.valueOf(getK()) + "\n";
         result += "b: ";
+        Node backpointer = getBackpointer();
         if (backpointer != null)
         {
             result += backpointer.getName();
         }
         result += "\n";
-        result += type + "\n";
+        result += getType() + "\n";
         
-        if (robot == this)
+        if (this.equals(robot))
         {
             result += "Robot is here.\n";
         }
@@ -238,17 +276,4 @@ public class Node implements Comparable
     {
         return toString(null);
     }
-    
-    /**
-     * Floats are equal if both are infinity or if they differ
-     * by epsilon = .001
-     * @param x is the first float to compare.
-     * @param y is the second float to compare.
-     * @return true if the floats are considered equal.
-     */
-    private boolean equals(float x, float y)
-    {
-        return (x >= Node.INFINITY && y >= Node.INFINITY) || 
-               (Math.abs(x - y) < .0001);
-    }
 }
@@ -0,0 +1,339 @@
+package d_star;
+
+import java.util.Arrays;
+
+/**
+ * The OPEN list for D* and D* Lite, stored as an indexed binary min-heap of
+ * cell indices.  Every cell remembers its slot in the heap, so membership
+ * tests are O(1) and insert, decrease-key and removal are O(log n).  Each
+ * heap slot keeps a copy of its cell's keys so that comparisons never have
+ * to leave the heap arrays.
+ * 
+ * Cells are ordered by a primary key, then a secondary key.  Each slot also
+ * carries a tag that the list doesn't look at; Focused D* uses it to tell
+ * which robot position a cell's primary key was computed for.
+ * 
+ * Like SearchState, the list keeps each cell's slot in tiles that are only
+ * allocated when one of their cells first joins the list, so a list over a
+ * huge map only costs memory where the search has been.
+ * @author Kevin Dittmar
+ */
+class OpenList
+{
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private final Grid grid;
+    
+    /* Heap slot of each cell in the world, or -1 if the cell isn't on the
+     * list, by tile (see Grid.tiled); tiles that no cell has joined from
+     * are null.
+     */
+    private final int[][] position;
+    
+    private int[] cells;
+    private int[] keys;
+    private int[] second_keys;
+    private int[] tags;
+    private long[] orders;
+    private int size;
+    
+    /* Incremented every time a cell joins the list or has its key lowered;
+     * cells with equal keys leave the list in that order.
+     */
+    private long next_order;
+    
+    /**
+     * @param grid is the world whose cells go on the list.
+     */
+    OpenList(Grid grid)
+    {
+        this.grid = grid;
+        position = new int[grid.getTileCount()][];
+        cells = new int[INITIAL_CAPACITY];
+        keys = new int[INITIAL_CAPACITY];
+        second_keys = new int[INITIAL_CAPACITY];
+        tags = new int[INITIAL_CAPACITY];
+        orders = new long[INITIAL_CAPACITY];
+        size = 0;
+        next_order = 0;
+    }
+    
+    /**
+     * @return the number of cells on the list.
+     */
+    int size()
+    {
+        return size;
+    }
+    
+    /**
+     * @return true if there are no cells on the list.
+     */
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+    
+    /**
+     * @param cell is the index of the cell in question.
+     * @return true if the cell is currently on the list.
+     */
+    boolean contains(int cell)
+    {
+        return getPosition(cell) >= 0;
+    }
+    
+    /**
+     * @return the cell with the smallest key without removing it, or
+     * Grid.NO_CELL if the list is empty.
+     */
+    int peek()
+    {
+        return size > 0 ? cells[0] : Grid.NO_CELL;
+    }
+    
+    /**
+     * @return the primary key of the first cell on the list.
+     * Pre:  the list is not empty.
+     */
+    int peekKey()
+    {
+        return keys[0];
+    }
+    
+    /**
+     * @return the secondary key of the first cell on the list.
+     * Pre:  the list is not empty.
+     */
+    int peekSecondKey()
+    {
+        return second_keys[0];
+    }
+    
+    /**
+     * @return the tag of the first cell on the list.
+     * Pre:  the list is not empty.
+     */
+    int peekTag()
+    {
+        return tags[0];
+    }
+    
+    /**
+     * Put a cell on the list with the given keys, or move it if it is
+     * already on the list with different keys.  Either way, the cell is
+     * ordered after every cell already on the list with equal keys.  If the
+     * cell is already on the list with exactly these keys, it keeps its place.
+     * @param cell is the index of the cell to add or reposition.
+     * @param key is the cell's new primary key.
+     * @param second_key is the cell's new secondary key.
+     * @param tag is stored with the cell.
+     */
+    void insert(int cell, int key, int second_key, int tag)
+    {
+        int index = getPosition(cell);
+        if (index >= 0)
+        {
+            if (keys[index] == key && second_keys[index] == second_key)
+            {
+                tags[index] = tag;
+                return;
+            }
+        }
+        else
+        {
+            if (size == cells.length)
+            {
+                int capacity = size * 2;
+                cells = Arrays.copyOf(cells, capacity);
+                keys = Arrays.copyOf(keys, capacity);
+                second_keys = Arrays.copyOf(second_keys, capacity);
+                tags = Arrays.copyOf(tags, capacity);
+                orders = Arrays.copyOf(orders, capacity);
+            }
+            index = size++;
+        }
+        set(index, cell, key, second_key, tag, next_order++);
+        siftUp(index);
+        siftDown(getPosition(cell));
+    }
+    
+    /**
+     * Remove a cell from the list if it is on it.
+     * @param cell is the index of the cell to remove.
+     */
+    void remove(int cell)
+    {
+        int index = getPosition(cell);
+        if (index < 0)
+        {
+            return;
+        }
+        setPosition(cell, -1);
+        size--;
+        
+        if (index < size)
+        {
+            int moved = cells[size];
+            set(index, moved, keys[size], second_keys[size], tags[size],
+                orders[size]);
+            siftUp(index);
+            if (getPosition(moved) == index)
+            {
+                siftDown(index);
+            }
+        }
+    }
+    
+    /**
+     * Remove and return the cell with the smallest key.
+     * @return the removed cell, or Grid.NO_CELL if the list is empty.
+     */
+    int poll()
+    {
+        int min = peek();
+        if (min != Grid.NO_CELL)
+        {
+            remove(min);
+        }
+        return min;
+    }
+    
+    /**
+     * Remove every cell from the list.
+     */
+    void clear()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            setPosition(cells[i], -1);
+        }
+        size = 0;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the heap slot of the cell, or -1 if it isn't on the list.
+     */
+    private int getPosition(int cell)
+    {
+        int tiled = grid.tiled(cell);
+        int[] tile = position[tiled >>> Grid.TILE_SHIFT];
+        return tile == null ? -1 : tile[tiled & Grid.TILE_MASK];
+    }
+    
+    /**
+     * Record the heap slot of a cell, allocating its tile if need be.
+     * @param cell is the index of the cell.
+     * @param index is the cell's heap slot, or -1 if it isn't on the list.
+     */
+    private void setPosition(int cell, int index)
+    {
+        int tiled = grid.tiled(cell);
+        int[] tile = position[tiled >>> Grid.TILE_SHIFT];
+        if (tile == null)
+        {
+            tile = new int[Grid.TILE_CELLS];
+            Arrays.fill(tile, -1);
+            position[tiled >>> Grid.TILE_SHIFT] = tile;
+        }
+        tile[tiled & Grid.TILE_MASK] = index;
+    }
+    
+    /**
+     * Fill a heap slot and record the slot for its cell.
+     */
+    private void set(int index, int cell, int key, int second_key, int tag,
+                     long order)
+    {
+        cells[index] = cell;
+        keys[index] = key;
+        second_keys[index] = second_key;
+        tags[index] = tag;
+        orders[index] = order;
+        setPosition(cell, index);
+    }
+    
+    /**
+     * @return true if heap slot a must come before heap slot b.
+     */
+    private boolean less(int a, int b)
+    {
+        return before(keys[a], second_keys[a], orders[a], b);
+    }
+    
+    /**
+     * @return true if an entry with the given keys and order must come
+     * before heap slot b.
+     */
+    private boolean before(int key, int second_key, long order, int b)
+    {
+        if (key != keys[b])
+        {
+            return key < keys[b];
+        }
+        if (second_key != second_keys[b])
+        {
+            return second_key < second_keys[b];
+        }
+        return order < orders[b];
+    }
+    
+    /**
+     * Move the cell at the given slot towards the root until its parent is
+     * no larger than it.
+     * @param index is the heap slot of the cell to move.
+     */
+    private void siftUp(int index)
+    {
+        int cell = cells[index];
+        int key = keys[index];
+        int second_key = second_keys[index];
+        int tag = tags[index];
+        long order = orders[index];
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            if (!before(key, second_key, order, parent))
+            {
+                break;
+            }
+            set(index, cells[parent], keys[parent], second_keys[parent],
+                tags[parent], orders[parent]);
+            index = parent;
+        }
+        set(index, cell, key, second_key, tag, order);
+    }
+    
+    /**
+     * Move the cell at the given slot towards the leaves until neither of
+     * its children is smaller than it.
+     * @param index is the heap slot of the cell to move.
+     */
+    private void siftDown(int index)
+    {
+        int cell = cells[index];
+        int key = keys[index];
+        int second_key = second_keys[index];
+        int tag = tags[index];
+        long order = orders[index];
+        int half = size >>> 1;
+        while (index < half)
+        {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && less(right, child))
+            {
+                child = right;
+            }
+            if (before(key, second_key, order, child))
+            {
+                break;
+            }
+            set(index, cells[child], keys[child], second_keys[child],
+                tags[child], orders[child]);
+            index = child;
+        }
+        set(index, cell, key, second_key, tag, order);
+    }
+}
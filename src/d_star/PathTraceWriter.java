@@ -0,0 +1,51 @@
+package d_star;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Records only the path of the robot: the name of each cell it occupies,
+ * one per line.
+ * @author Kevin Dittmar
+ */
+class PathTraceWriter implements Trace
+{
+    private final BufferedWriter out;
+    private final Grid world;
+    private int last_robot;
+    
+    /**
+     * @param out is where the path is written.  It is closed when this
+     * PathTraceWriter is closed.
+     * @param world is the Grid that the robot moves through.
+     */
+    PathTraceWriter(Writer out, Grid world)
+    {
+        this.out = new BufferedWriter(out);
+        this.world = world;
+        last_robot = Grid.NO_CELL;
+    }
+    
+    /**
+     * Write the robot's cell if it has moved since the last call.
+     * @param robot is the cell that the robot occupies.
+     * @throws IOException if the trace can't be written to.
+     */
+    @Override
+    public void write(int robot) throws IOException
+    {
+        if (robot != last_robot)
+        {
+            out.write(world.getName(robot));
+            out.newLine();
+            last_robot = robot;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
@@ -0,0 +1,350 @@
+package d_star;
+
+import java.util.Arrays;
+
+/**
+ * The path that a planner currently plans for the robot, from the robot's
+ * cell along the backpointers to the goal, kept as an array of cell
+ * indices so that a controller can read it every tick without asking the
+ * planner to walk the backpointers again.  The path is only walked again
+ * once the backpointer or type of one of its cells changes (see
+ * SearchState.setOnPath), or the type of a cell that decides whether one
+ * of its edges can be crossed, or the robot leaves it; while the robot
+ * moves along it, the cells behind the robot are just dropped.
+ *
+ * A search that finds no path can still leave backpointers behind, e.g.
+ * D* gives states behind a wall a backpointer through it along with an
+ * infinite h, so there is no path while the robot's h is infinite, and a
+ * walk stops at the first edge that the search believes can't be crossed.
+ *
+ * The path can also be smoothed into any-angle waypoints: each waypoint
+ * is joined to the next by a straight line that crosses no BLOCKED cell
+ * and no ground heavier than the heaviest on the stretch of path that it
+ * replaces, so a shortcut never takes the robot anywhere that the path
+ * itself wouldn't have it cross.
+ * @author Kevin Dittmar
+ */
+final class PlannedPath
+{
+    private static final int[] NONE = {};
+    
+    private final SearchState world;
+    private final Grid grid;
+    
+    //Whether a diagonal move mustn't cut past a blocked cell beside it.
+    private final boolean corners;
+    
+    /* Every cell walked from the robot, each one marked as on the path,
+     * how many of them there are, and the one where the robot is now.
+     */
+    private int[] cells;
+    private int count;
+    private int first;
+    
+    /* Cells off the path whose types decide whether its edges can be
+     * crossed, which are marked too: the cells beside a diagonal move that
+     * mustn't cut corners, and the cell past an edge that can't be crossed.
+     */
+    private int[] guards;
+    private int guard_count;
+    
+    //Whether the walk reached the goal.
+    private boolean reached;
+    
+    //SearchState.getPathChanges when the path was walked, or -1.
+    private int changes;
+    
+    //The path from the robot, and its waypoints, or null until asked for.
+    private int[] path;
+    private int[] waypoints;
+    
+    /**
+     * @param world is the search whose backpointers the path follows.
+     */
+    PlannedPath(SearchState world)
+    {
+        this.world = world;
+        grid = world.getGrid();
+        Neighborhood neighborhood = world.getNeighborhood();
+        corners = neighborhood.hasDiagonals() && !neighborhood.cutsCorners();
+        cells = new int[16];
+        guards = new int[16];
+        changes = -1;
+    }
+    
+    /**
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return the cells from the robot to the goal, both included, or an
+     * empty array if the robot's h is infinite or the backpointers from the
+     * robot don't reach the goal over edges that can be crossed.  The array
+     * is shared with later calls, so it mustn't be changed.
+     */
+    int[] get(int robot, int goal)
+    {
+        //The robot's h can change without a backpointer on the path changing.
+        if (world.getH(robot) == CostScale.INFINITY)
+        {
+            return NONE;
+        }
+        if (!follow(robot))
+        {
+            walk(robot, goal);
+        }
+        if (path == null)
+        {
+            path = reached ? Arrays.copyOfRange(cells, first, count) : NONE;
+        }
+        return path;
+    }
+    
+    /**
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return the waypoints of the smoothed path from the robot to the
+     * goal, both included, or an empty array if there is no path.  The
+     * array is shared with later calls, so it mustn't be changed.
+     */
+    int[] smooth(int robot, int goal)
+    {
+        if (get(robot, goal) == NONE)
+        {
+            return NONE;
+        }
+        if (waypoints == null)
+        {
+            waypoints = smooth(path);
+        }
+        return waypoints;
+    }
+    
+    /**
+     * Check whether the cached walk still holds for where the robot is, and
+     * drop the cells that the robot has passed.
+     * @param robot is the cell that the robot occupies.
+     * @return true if the cached walk can be used.
+     */
+    private boolean follow(int robot)
+    {
+        if (changes != world.getPathChanges() || count == 0)
+        {
+            return false;
+        }
+        if (cells[first] == robot)
+        {
+            return true;
+        }
+        for (int i = first + 1; i < count; i++)
+        {
+            if (cells[i] == robot)
+            {
+                while (first < i)
+                {
+                    world.setOnPath(cells[first++], false);
+                }
+                markGuards();
+                path = null;
+                waypoints = null;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Walk the backpointers from the robot until they reach the goal, run
+     * out, come to an edge that the search believes can't be crossed, or go
+     * around in a circle, marking every cell on the way and every guard.
+     * The cells of a walk that doesn't reach the goal are marked too, so
+     * that fixing any of their backpointers, or clearing the cell that
+     * stopped it, makes the path walked again.
+     * @param robot is the cell that the robot occupies.
+     * @param goal is the cell that the robot is trying to reach.
+     */
+    private void walk(int robot, int goal)
+    {
+        for (int i = first; i < count; i++)
+        {
+            world.setOnPath(cells[i], false);
+        }
+        for (int i = 0; i < guard_count; i++)
+        {
+            world.setOnPath(guards[i], false);
+        }
+        guard_count = 0;
+        count = 0;
+        first = 0;
+        path = null;
+        waypoints = null;
+        
+        reached = false;
+        int cell = robot;
+        while (cell != Grid.NO_CELL && !world.isOnPath(cell))
+        {
+            world.setOnPath(cell, true);
+            if (count == cells.length)
+            {
+                cells = Arrays.copyOf(cells, count * 2);
+            }
+            cells[count++] = cell;
+            if (cell == goal)
+            {
+                reached = true;
+                break;
+            }
+            
+            int next = world.getBackpointer(cell);
+            if (next == Grid.NO_CELL)
+            {
+                break;
+            }
+            int direction = grid.direction(cell, next);
+            if (corners && Grid.ROW_MODS[direction] != 0 &&
+                Grid.COL_MODS[direction] != 0)
+            {
+                guard(grid.index(grid.getRow(next), grid.getCol(cell)));
+                guard(grid.index(grid.getRow(cell), grid.getCol(next)));
+            }
+            if (world.cost(cell, next, direction) == CostScale.INFINITY)
+            {
+                guard(next);
+                break;
+            }
+            cell = next;
+        }
+        
+        //Mark guards only now, so that the walk can't take one for a circle.
+        markGuards();
+        changes = world.getPathChanges();
+    }
+    
+    /**
+     * @param cell is the index of a cell off the path whose type decides
+     * whether one of its edges can be crossed.
+     */
+    private void guard(int cell)
+    {
+        if (guard_count == guards.length)
+        {
+            guards = Arrays.copyOf(guards, guard_count * 2);
+        }
+        guards[guard_count++] = cell;
+    }
+    
+    /**
+     * Mark every guard as on the path, including any that dropping the
+     * cells behind the robot unmarked.
+     */
+    private void markGuards()
+    {
+        for (int i = 0; i < guard_count; i++)
+        {
+            world.setOnPath(guards[i], true);
+        }
+    }
+    
+    /**
+     * Shorten a path by joining each waypoint straight to the furthest
+     * cell after it that it can see along the path.
+     * @param path is the cells of a path.
+     * @return the waypoints, starting and ending with the path's ends.
+     */
+    private int[] smooth(int[] path)
+    {
+        if (path.length <= 2)
+        {
+            return path;
+        }
+        int[] result = new int[path.length];
+        int size = 0;
+        result[size++] = path[0];
+        int anchor = 0;
+        int heaviest = Math.max(weight(path[0]), weight(path[1]));
+        for (int i = 2; i < path.length; i++)
+        {
+            heaviest = Math.max(heaviest, weight(path[i]));
+            if (!isClear(path[anchor], path[i], heaviest))
+            {
+                anchor = i - 1;
+                result[size++] = path[anchor];
+                heaviest = Math.max(weight(path[anchor]), weight(path[i]));
+            }
+        }
+        result[size++] = path[path.length - 1];
+        return Arrays.copyOf(result, size);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the weight of the ground that the search believes the cell
+     * has.
+     */
+    private int weight(int cell)
+    {
+        return Node.weight(world.getType(cell));
+    }
+    
+    /**
+     * Walk every cell that the straight line between two cell centers
+     * passes through, including both cells beside any corner it passes
+     * exactly through, and check that the robot could cross them all.
+     * @param from is the index of the cell where the line starts.
+     * @param to is the index of the cell where the line ends.
+     * @param heaviest is the heaviest ground that the line may cross.
+     * @return true if no cell on the line is BLOCKED or heavier.
+     */
+    private boolean isClear(int from, int to, int heaviest)
+    {
+        Grid grid = world.getGrid();
+        int cols = grid.getCols();
+        int row = grid.getRow(from);
+        int col = grid.getCol(from);
+        int rows_apart = Math.abs(grid.getRow(to) - row);
+        int cols_apart = Math.abs(grid.getCol(to) - col);
+        int row_step = grid.getRow(to) > row ? cols : -cols;
+        int col_step = grid.getCol(to) > col ? 1 : -1;
+        int error = cols_apart - rows_apart;
+        int cell = from;
+        for (int steps = rows_apart + cols_apart; steps > 0; steps--)
+        {
+            if (error > 0)
+            {
+                cell += col_step;
+                error -= 2 * rows_apart;
+            }
+            else if (error < 0)
+            {
+                cell += row_step;
+                error += 2 * cols_apart;
+            }
+            else
+            {
+                //Through a corner: the cells on both sides must be clear.
+                if (!isPassable(cell + col_step, heaviest) ||
+                    !isPassable(cell + row_step, heaviest))
+                {
+                    return false;
+                }
+                cell += col_step + row_step;
+                error += 2 * (cols_apart - rows_apart);
+                steps--;
+            }
+            if (!isPassable(cell, heaviest))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param heaviest is the heaviest ground that may be crossed.
+     * @return true if the cell isn't BLOCKED and isn't heavier.
+     */
+    private boolean isPassable(int cell, int heaviest)
+    {
+        char type = world.getType(cell);
+        return type != Node.BLOCKED && Node.weight(type) <= heaviest;
+    }
+}
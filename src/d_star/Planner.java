@@ -0,0 +1,130 @@
+package d_star;
+
+import java.io.IOException;
+
+/**
+ * A path planner for a robot moving through a Grid towards a goal, which
+ * replans as the robot discovers that cells are blocked or clear.  D_Star
+ * and DStarLite both plan this way, so either one can be used wherever a
+ * Planner is needed and both can be run on the same maps.
+ * @author Kevin Dittmar
+ */
+public interface Planner
+{
+    /**
+     * @return the map that this planner plans over.
+     */
+    Grid getGrid();
+    
+    /**
+     * Get a Node view of a cell, showing what the last search found there.
+     * @param row is the row of the cell.
+     * @param col is the column of the cell.
+     * @return the Node for the cell, or null if it is outside of the world.
+     */
+    Node getNode(int row, int col);
+    
+    /**
+     * Choose how much of the planner's progress execute writes to its
+     * output file.
+     * @param trace_mode is the new trace mode.
+     */
+    void setTraceMode(TraceMode trace_mode);
+    
+    /**
+     * Plan a path from the given start to the given goal without moving the
+     * robot, forgetting everything learned by earlier plans.
+     * @param start is the cell where the robot is.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if there is a path from start to goal.
+     * @throws IOException if the trace can't be written.
+     */
+    boolean plan(int start, int goal) throws IOException;
+    
+    /**
+     * Tell the planner that the robot has moved.
+     * @param cell is the cell that the robot now occupies.
+     */
+    void setRobot(int cell);
+    
+    /**
+     * @return the cell that the robot should move to next, or Grid.NO_CELL
+     * if it doesn't have one.
+     */
+    int getNextStep();
+    
+    /**
+     * Get every cell of the path that the planner plans for the robot now.
+     * The path is cached, and only walked again when a backpointer on it
+     * changes or the robot leaves it, so it is cheap to ask for every tick.
+     * @return the cells from the robot to the goal, both included, or an
+     * empty array if there is no path.  The array mustn't be changed.
+     */
+    int[] getPlannedPath();
+    
+    /**
+     * Get the planned path smoothed into any-angle waypoints, each joined
+     * to the next by a straight line that crosses no known obstacle and no
+     * heavier ground than the part of the path that it replaces.
+     * @return the waypoints from the robot to the goal, both included, or
+     * an empty array if there is no path.  The array mustn't be changed.
+     */
+    int[] getSmoothedPath();
+    
+    /**
+     * Apply a batch of cell changes reported by the robot's sensors, then
+     * replan from the robot's cell.
+     * @param batch is the cells that changed since the last update.
+     * @return true if there is still a path from the robot to the goal.
+     * @throws IOException if the trace can't be written.
+     */
+    boolean updateCells(Iterable<CellUpdate> batch) throws IOException;
+    
+    /**
+     * Give the robot a sensor, so that after every move execute reports
+     * every hidden obstacle the sensor can see as one batch to updateCells.
+     * Without one, the robot only finds an obstacle when it tries to move
+     * onto it.
+     * @param sensor is the robot's sensor, or null for none.
+     */
+    void setSensor(Sensor sensor);
+    
+    /**
+     * Start or stop keeping metrics.  While the planner has no metrics, the
+     * only cost is a null check per event.
+     * @param metrics receives the planner's metrics from now on, or null to
+     * stop keeping them.
+     */
+    void setMetrics(PlannerMetrics metrics);
+    
+    /**
+     * @return the number of states processed since the last call to plan or
+     * execute began, including any replanning since.
+     */
+    int getExpansions();
+    
+    /**
+     * Move the robot from the map's start to its goal.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     */
+    boolean execute();
+    
+    /**
+     * Plan, then move the robot from the given start to the given goal,
+     * replanning whenever it finds its next cell blocked or its sensor sees
+     * a hidden obstacle.
+     * @param start is the cell where the robot starts.
+     * @param goal is the cell that the robot is trying to reach.
+     * @return true if the robot reached the goal, or false if there is no
+     * path.
+     */
+    boolean execute(int start, int goal);
+    
+    /**
+     * @return the cells that the robot moved through during the last call
+     * to execute, starting with the start cell and, if the goal was
+     * reached, ending with the goal.
+     */
+    int[] getPath();
+}
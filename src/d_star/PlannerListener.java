@@ -0,0 +1,41 @@
+package d_star;
+
+/**
+ * Told by a PlannerMetrics whenever its planner finishes a plan or a
+ * replan, so that the metrics can be exported as they change.  The metrics
+ * are live, so a listener that keeps them for later should copy what it
+ * needs.
+ * @author Kevin Dittmar
+ */
+public interface PlannerListener
+{
+    /**
+     * A PlannerListener that does nothing.
+     */
+    PlannerListener NONE = new PlannerListener()
+    {
+        @Override
+        public void planFinished(PlannerMetrics metrics, long nanos)
+        {
+        }
+        
+        @Override
+        public void replanFinished(PlannerMetrics metrics, long nanos)
+        {
+        }
+    };
+    
+    /**
+     * Called when the planner has finished a plan from scratch.
+     * @param metrics is the planner's metrics, including this plan.
+     * @param nanos is how long the plan took.
+     */
+    void planFinished(PlannerMetrics metrics, long nanos);
+    
+    /**
+     * Called when the planner has finished replanning after cells changed.
+     * @param metrics is the planner's metrics, including this replan.
+     * @param nanos is how long the replan took.
+     */
+    void replanFinished(PlannerMetrics metrics, long nanos);
+}
@@ -0,0 +1,329 @@
+package d_star;
+
+import java.util.Arrays;
+
+/**
+ * Counts what a Planner does: how many states it processes and what kind,
+ * how many times it puts a state on the open list and what state it was in,
+ * how big the open list gets, how many cells it touches, and how long each
+ * plan and replan takes.  A planner only keeps metrics while it has a
+ * PlannerMetrics (see Planner.setMetrics); without one, all it pays is a
+ * null check per event.
+ *
+ * Replan latencies are kept in a histogram with one bucket per power of two
+ * nanoseconds, so recording one never allocates and the histogram never
+ * grows.
+ *
+ * A PlannerMetrics is not thread safe; give each planner its own.
+ * @author Kevin Dittmar
+ */
+public class PlannerMetrics
+{
+    //Bucket i holds latencies of at least 2^i and less than 2^(i+1) ns.
+    private static final int BUCKETS = 64;
+    
+    private long process_states;
+    private long raises;
+    private long lowers;
+    private long inserts_new;
+    private long inserts_open;
+    private long inserts_closed;
+    private int peak_open_size;
+    private int cells_touched;
+    
+    private long plans;
+    private long last_plan_nanos;
+    
+    private final long[] replan_buckets;
+    private long replans;
+    private long replan_total_nanos;
+    private long replan_max_nanos;
+    
+    //Told about every finished plan and replan.
+    private PlannerListener listener;
+    
+    /**
+     * Create metrics with every count at zero and no listener.
+     */
+    public PlannerMetrics()
+    {
+        replan_buckets = new long[BUCKETS];
+        listener = PlannerListener.NONE;
+    }
+    
+    /**
+     * @param listener is told about every plan and replan from now on, or
+     * null to stop telling anyone.
+     */
+    public void setListener(PlannerListener listener)
+    {
+        this.listener = listener == null ? PlannerListener.NONE : listener;
+    }
+    
+    /**
+     * Set every count back to zero.  The listener is kept.
+     */
+    public void reset()
+    {
+        process_states = 0;
+        raises = 0;
+        lowers = 0;
+        inserts_new = 0;
+        inserts_open = 0;
+        inserts_closed = 0;
+        peak_open_size = 0;
+        cells_touched = 0;
+        plans = 0;
+        last_plan_nanos = 0;
+        Arrays.fill(replan_buckets, 0);
+        replans = 0;
+        replan_total_nanos = 0;
+        replan_max_nanos = 0;
+    }
+    
+    /**
+     * Count a processed state.
+     * @param raise is true if the state was a RAISE state (its path got
+     * more expensive), or false if it was a LOWER state.
+     */
+    void processed(boolean raise)
+    {
+        process_states++;
+        if (raise)
+        {
+            raises++;
+        }
+        else
+        {
+            lowers++;
+        }
+    }
+    
+    /**
+     * Count a state going onto the open list.
+     * @param state is the state it was in before, one of Node.NEW,
+     * Node.OPEN or Node.CLOSED.
+     * @param open_size is the size of the open list afterwards.
+     */
+    void inserted(int state, int open_size)
+    {
+        if (state == Node.NEW)
+        {
+            inserts_new++;
+        }
+        else if (state == Node.OPEN)
+        {
+            inserts_open++;
+        }
+        else
+        {
+            inserts_closed++;
+        }
+        if (open_size > peak_open_size)
+        {
+            peak_open_size = open_size;
+        }
+    }
+    
+    /**
+     * Record a finished plan from scratch and tell the listener.
+     * @param nanos is how long the plan took.
+     * @param cells_touched is the number of cells that the search has
+     * touched.
+     */
+    void planFinished(long nanos, int cells_touched)
+    {
+        plans++;
+        last_plan_nanos = nanos;
+        this.cells_touched = cells_touched;
+        listener.planFinished(this, nanos);
+    }
+    
+    /**
+     * Record a finished replan and tell the listener.
+     * @param nanos is how long the replan took.
+     * @param cells_touched is the number of cells that the search has
+     * touched.
+     */
+    void replanFinished(long nanos, int cells_touched)
+    {
+        replans++;
+        replan_total_nanos += nanos;
+        replan_max_nanos = Math.max(replan_max_nanos, nanos);
+        replan_buckets[bucket(nanos)]++;
+        this.cells_touched = cells_touched;
+        listener.replanFinished(this, nanos);
+    }
+    
+    /**
+     * @param nanos is a latency.
+     * @return the histogram bucket that the latency goes in.
+     */
+    private static int bucket(long nanos)
+    {
+        return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+    
+    /**
+     * @return the number of states processed.
+     */
+    public long getProcessStates()
+    {
+        return process_states;
+    }
+    
+    /**
+     * @return the number of RAISE states processed: states whose path got
+     * more expensive.
+     */
+    public long getRaises()
+    {
+        return raises;
+    }
+    
+    /**
+     * @return the number of LOWER states processed: states that got a path
+     * at least as cheap as the one they had.
+     */
+    public long getLowers()
+    {
+        return lowers;
+    }
+    
+    /**
+     * @return the number of times a NEW state was put on the open list.
+     */
+    public long getInsertsNew()
+    {
+        return inserts_new;
+    }
+    
+    /**
+     * @return the number of times a state already on the open list had its
+     * key changed.
+     */
+    public long getInsertsOpen()
+    {
+        return inserts_open;
+    }
+    
+    /**
+     * @return the number of times a CLOSED state was put back on the open
+     * list.
+     */
+    public long getInsertsClosed()
+    {
+        return inserts_closed;
+    }
+    
+    /**
+     * @return the most states that have been on the open list at once.
+     */
+    public int getPeakOpenSize()
+    {
+        return peak_open_size;
+    }
+    
+    /**
+     * @return the number of cells touched by the current search as of the
+     * last plan or replan.
+     */
+    public int getCellsTouched()
+    {
+        return cells_touched;
+    }
+    
+    /**
+     * @return the number of plans from scratch.
+     */
+    public long getPlans()
+    {
+        return plans;
+    }
+    
+    /**
+     * @return how long the last plan from scratch took, in nanoseconds.
+     */
+    public long getLastPlanNanos()
+    {
+        return last_plan_nanos;
+    }
+    
+    /**
+     * @return the number of replans.
+     */
+    public long getReplans()
+    {
+        return replans;
+    }
+    
+    /**
+     * @return the total time spent replanning, in nanoseconds.
+     */
+    public long getReplanTotalNanos()
+    {
+        return replan_total_nanos;
+    }
+    
+    /**
+     * @return the longest replan, in nanoseconds.
+     */
+    public long getReplanMaxNanos()
+    {
+        return replan_max_nanos;
+    }
+    
+    /**
+     * @return a copy of the replan latency histogram: element i is the
+     * number of replans that took at least 2^i and less than 2^(i+1)
+     * nanoseconds.
+     */
+    public long[] getReplanHistogram()
+    {
+        return replan_buckets.clone();
+    }
+    
+    /**
+     * Estimate a percentile of the replan latency from the histogram.
+     * @param percentile is between 0 and 100.
+     * @return the upper bound, in nanoseconds, of the histogram bucket that
+     * holds the percentile, or 0 if there haven't been any replans.
+     */
+    public long getReplanPercentileNanos(double percentile)
+    {
+        if (replans == 0)
+        {
+            return 0;
+        }
+        long rank = (long)Math.ceil(percentile / 100.0 * replans);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += replan_buckets[i];
+            if (seen >= rank && seen > 0)
+            {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (2L << i) - 1;
+            }
+        }
+        return replan_max_nanos;
+    }
+    
+    /**
+     * @return every count on one line, for logging.
+     */
+    @Override
+    public String toString()
+    {
+        return "processState=" + process_states +
+               " (raise=" + raises + " lower=" + lowers + ")" +
+               " insert=" + (inserts_new + inserts_open + inserts_closed) +
+               " (new=" + inserts_new + " open=" + inserts_open +
+               " closed=" + inserts_closed + ")" +
+               " peakOpen=" + peak_open_size +
+               " touched=" + cells_touched +
+               " plans=" + plans +
+               " replans=" + replans +
+               " replanP50<=" + getReplanPercentileNanos(50) + "ns" +
+               " replanMax=" + replan_max_nanos + "ns";
+    }
+}
@@ -0,0 +1,602 @@
+package d_star;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Everything a search knows about the cells of a Grid: h, k, b, state, and
+ * the type that the search believes each cell has, which starts out as the
+ * type on the map and changes as blocked cells are discovered.  h and k are
+ * costs in the search's CostScale.
+ * 
+ * The state is stored in square tiles of Grid.TILE_SIDE by Grid.TILE_SIDE
+ * cells (see Grid.tiled), and a tile is only allocated when a search first
+ * writes one of its cells, so memory grows with the area of the map that
+ * searches explore rather than with the whole map.  Tiles are kept for
+ * later searches.  Each cell's state is kept together in WORDS consecutive
+ * ints of its tile, so reading a cell usually touches a single cache line.
+ * 
+ * Every cell carries the generation (epoch) in which it was last written.
+ * A cell from an older generation, or in a tile that was never allocated,
+ * reads as NEW with h and k of 0, no backpointer and its type from the
+ * map, so reset only has to start a new generation instead of clearing
+ * every cell, and each search only pays for the cells that it actually
+ * touches.
+ * 
+ * A cell can also be marked as being on the path that a PlannedPath has
+ * cached.  Changing the backpointer or type of a marked cell counts as a
+ * change to the path, so the cache knows to walk the path again; changes
+ * anywhere else cost the cache nothing.
+ * 
+ * A trace can have every cell whose h, k, b, state or type changes listed
+ * in a ChangedCells as it is written, including the cells that a reset
+ * makes NEW again, so that it never has to compare the whole map with the
+ * last step.
+ * 
+ * A SearchState also decides which moves the search can make, from its
+ * Neighborhood: its neighbors and the cost of the edge to each one come
+ * from tables of offsets and move costs worked out once when it is
+ * created.  Whether the search believes a cell is BLOCKED is kept in bits
+ * as well as in the cell's type: the map's BLOCKED bit, flipped for the
+ * cells where the search believes otherwise.  The cost of an edge tests
+ * those bits and only reads types when there is terrain to weigh.
+ * @author Kevin Dittmar
+ */
+public class SearchState
+{
+    /* The words of a cell's state: the generation in which it was last
+     * written, h, k, b, and its state in the low byte of FLAGS with its
+     * type in the byte above and the ON_PATH mark above that.
+     */
+    private static final int STAMP = 0;
+    private static final int H = 1;
+    private static final int K = 2;
+    private static final int BACKPOINTER = 3;
+    private static final int FLAGS = 4;
+    private static final int WORDS = 5;
+    private static final int ON_PATH = 1 << 16;
+    
+    private final Grid grid;
+    private final CostScale scale;
+    private final Neighborhood neighborhood;
+    
+    /* The moves that the search can make: whether diagonals are among them,
+     * the index offset and the cost over open ground of a move in each of
+     * the Grid.DIRECTIONS directions, and for diagonals that can't cut
+     * corners, the offsets to the two cells beside the move.
+     */
+    private final boolean diagonals;
+    private final int[] offsets;
+    private final int[] move_costs;
+    private final boolean[] corners;
+    private final int[] row_sides;
+    private final int[] col_sides;
+    
+    //Every tile of the world, or null for tiles that were never written.
+    private final int[][] tiles;
+    
+    private int epoch;
+    
+    //The number of cells written in the current generation.
+    private int touched;
+    
+    //The number of changes to marked cells, and of resets.
+    private int path_changes;
+    
+    //Where every change to a cell is listed, or null.
+    private ChangedCells changes;
+    
+    /* One bit per cell, set where the search believes that the cell is
+     * BLOCKED and the map doesn't, or the other way around, and the cells
+     * whose bits have been set since the last reset, possibly repeated.
+     */
+    private final BitLayer flipped;
+    private int[] flipped_cells;
+    private int flipped_count;
+    
+    //Whether the search has believed any cell is terrain since the last reset.
+    private boolean weighted;
+    
+    /**
+     * Create a search state where every cell is NEW, with costs in
+     * CostScale.TENTHS.
+     * @param grid is the map being searched.
+     */
+    public SearchState(Grid grid)
+    {
+        this(grid, CostScale.TENTHS);
+    }
+    
+    /**
+     * Create a search state where every cell is NEW, with moves to all
+     * eight neighbors.
+     * @param grid is the map being searched.
+     * @param scale is the scale of every h and k value.
+     */
+    public SearchState(Grid grid, CostScale scale)
+    {
+        this(grid, scale, Neighborhood.EIGHT);
+    }
+    
+    /**
+     * Create a search state where every cell is NEW.  No tiles are
+     * allocated until cells are written.
+     * @param grid is the map being searched.
+     * @param scale is the scale of every h and k value.
+     * @param neighborhood is the moves that the search can make.
+     */
+    public SearchState(Grid grid, CostScale scale, Neighborhood neighborhood)
+    {
+        this.grid = grid;
+        this.scale = scale;
+        this.neighborhood = neighborhood;
+        tiles = new int[grid.getTileCount()][];
+        epoch = 1;
+        flipped = new BitLayer(grid.size());
+        flipped_cells = new int[16];
+        
+        diagonals = neighborhood.hasDiagonals();
+        offsets = new int[Grid.DIRECTIONS];
+        move_costs = new int[Grid.DIRECTIONS];
+        corners = new boolean[Grid.DIRECTIONS];
+        row_sides = new int[Grid.DIRECTIONS];
+        col_sides = new int[Grid.DIRECTIONS];
+        for (int d = 0; d < Grid.DIRECTIONS; d++)
+        {
+            int row_mod = Grid.ROW_MODS[d];
+            int col_mod = Grid.COL_MODS[d];
+            offsets[d] = row_mod * grid.getCols() + col_mod;
+            move_costs[d] = row_mod != 0 && col_mod != 0 ?
+                            scale.getDiagonal() : scale.getStraight();
+            corners[d] = row_mod != 0 && col_mod != 0 &&
+                         !neighborhood.cutsCorners();
+            row_sides[d] = row_mod * grid.getCols();
+            col_sides[d] = col_mod;
+        }
+    }
+    
+    /**
+     * @return the map being searched.
+     */
+    public Grid getGrid()
+    {
+        return grid;
+    }
+    
+    /**
+     * @return the scale of every h and k value.
+     */
+    public CostScale getCostScale()
+    {
+        return scale;
+    }
+    
+    /**
+     * @return the moves that the search can make.
+     */
+    public Neighborhood getNeighborhood()
+    {
+        return neighborhood;
+    }
+    
+    /**
+     * Find the cells that the search can move to from a cell in one step,
+     * without allocating anything.
+     * @param cell is the index of the cell in question.
+     * @param neighbors receives the index of the neighbor in each of the
+     * Grid.DIRECTIONS directions, or Grid.NO_CELL where that neighbor would
+     * be outside of the world or the move isn't in the Neighborhood.
+     */
+    void getNeighbors(int cell, int[] neighbors)
+    {
+        int cols = grid.getCols();
+        int row = cell / cols;
+        int col = cell - row * cols;
+        boolean up = row > 0;
+        boolean down = row < grid.getRows() - 1;
+        boolean left = col > 0;
+        boolean right = col < cols - 1;
+        neighbors[0] = diagonals && up && left ? cell + offsets[0] :
+                                                 Grid.NO_CELL;
+        neighbors[1] = up ? cell + offsets[1] : Grid.NO_CELL;
+        neighbors[2] = diagonals && up && right ? cell + offsets[2] :
+                                                  Grid.NO_CELL;
+        neighbors[3] = left ? cell + offsets[3] : Grid.NO_CELL;
+        neighbors[4] = right ? cell + offsets[4] : Grid.NO_CELL;
+        neighbors[5] = diagonals && down && left ? cell + offsets[5] :
+                                                   Grid.NO_CELL;
+        neighbors[6] = down ? cell + offsets[6] : Grid.NO_CELL;
+        neighbors[7] = diagonals && down && right ? cell + offsets[7] :
+                                                    Grid.NO_CELL;
+    }
+    
+    /**
+     * The cost of the edge between a cell and one of its neighbors, for
+     * the types that the search believes they have.  The cost is the same
+     * in both directions.
+     * @param from is the index of a cell.
+     * @param to is the index of its neighbor in the given direction.
+     * @param direction is the direction from one cell to the other, one of
+     * the Grid.DIRECTIONS directions.
+     * @return the cost of the move, or CostScale.INFINITY if either cell is
+     * BLOCKED or the move would cut a blocked corner that it mustn't.
+     */
+    int cost(int from, int to, int direction)
+    {
+        if (isBlocked(from) || isBlocked(to) ||
+            (corners[direction] &&
+             (isBlocked(from + row_sides[direction]) ||
+              isBlocked(from + col_sides[direction]))))
+        {
+            return CostScale.INFINITY;
+        }
+        if (!weighted && !grid.hasTerrain())
+        {
+            return move_costs[direction];
+        }
+        return CostScale.weigh(move_costs[direction], getType(from),
+                               getType(to));
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return true if the search believes that the cell is BLOCKED.
+     */
+    boolean isBlocked(int cell)
+    {
+        return grid.isBlocked(cell) != flipped.get(cell);
+    }
+    
+    /**
+     * The cost of the cheapest path between two cells if nothing were in
+     * the way: the octile distance with diagonal moves, or the Manhattan
+     * distance without.  This never overestimates the real cost of a path.
+     * @param a is the index of a cell.
+     * @param b is the index of another cell.
+     * @return the cost of the cheapest unobstructed path between a and b.
+     */
+    int distance(int a, int b)
+    {
+        if (diagonals)
+        {
+            return grid.distance(a, b, scale);
+        }
+        int rows_apart = Math.abs(grid.getRow(a) - grid.getRow(b));
+        int cols_apart = Math.abs(grid.getCol(a) - grid.getCol(b));
+        return (int)Math.min(CostScale.INFINITY,
+                             (long)(rows_apart + cols_apart) *
+                             scale.getStraight());
+    }
+    
+    /**
+     * Make every cell NEW again, with h and k of 0, no backpointer, and its
+     * type from the map.  This takes constant time.
+     */
+    public void reset()
+    {
+        if (changes != null)
+        {
+            forEachTouched(changes::add);
+        }
+        epoch++;
+        touched = 0;
+        path_changes++;
+        for (int i = 0; i < flipped_count; i++)
+        {
+            flipped.set(flipped_cells[i], false);
+        }
+        flipped_count = 0;
+        weighted = false;
+        if (epoch == Integer.MAX_VALUE)
+        {
+            //Generations ran out, so clear the stamps and start over.
+            for (int[] tile : tiles)
+            {
+                for (int i = 0; tile != null && i < tile.length; i += WORDS)
+                {
+                    tile[i + STAMP] = 0;
+                }
+            }
+            epoch = 1;
+        }
+    }
+    
+    /**
+     * Call an action for every cell written since the last reset.
+     * @param action is called with the index of each cell.
+     */
+    void forEachTouched(IntConsumer action)
+    {
+        for (int t = 0; t < tiles.length; t++)
+        {
+            int[] tile = tiles[t];
+            for (int i = 0; tile != null && i < Grid.TILE_CELLS; i++)
+            {
+                if (tile[i * WORDS + STAMP] == epoch)
+                {
+                    action.accept(grid.untiled(t << Grid.TILE_SHIFT | i));
+                }
+            }
+        }
+    }
+    
+    /**
+     * List every cell whose h, k, b, state or type changes from now on,
+     * or stop listing them.
+     * @param changes is where the cells are listed, or null to stop.
+     */
+    void setChangedCells(ChangedCells changes)
+    {
+        this.changes = changes;
+    }
+    
+    /**
+     * @return the number of cells written since the last reset.
+     */
+    int getTouchedCount()
+    {
+        return touched;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param word is one of the words of a cell's state.
+     * @param blank is the word's value in a cell that hasn't been written
+     * since the last reset.
+     * @return the word's value in the cell.
+     */
+    private int read(int cell, int word, int blank)
+    {
+        int tiled = grid.tiled(cell);
+        int[] tile = tiles[tiled >>> Grid.TILE_SHIFT];
+        int slot = (tiled & Grid.TILE_MASK) * WORDS;
+        return tile != null && tile[slot + STAMP] == epoch ? tile[slot + word] :
+                                                             blank;
+    }
+    
+    /**
+     * Bring a cell into the current generation and set one word of its
+     * state, allocating its tile if this is the first write to it.
+     * @param cell is the index of a cell.
+     * @param word is one of the words of a cell's state.
+     * @param value is the word's new value.
+     * @param mask is the bits of the word to replace with value's.
+     */
+    private void write(int cell, int word, int value, int mask)
+    {
+        int tiled = grid.tiled(cell);
+        int[] tile = tiles[tiled >>> Grid.TILE_SHIFT];
+        if (tile == null)
+        {
+            tile = new int[Grid.TILE_CELLS * WORDS];
+            tiles[tiled >>> Grid.TILE_SHIFT] = tile;
+        }
+        int slot = (tiled & Grid.TILE_MASK) * WORDS;
+        if (tile[slot + STAMP] != epoch)
+        {
+            tile[slot + STAMP] = epoch;
+            touched++;
+            tile[slot + H] = 0;
+            tile[slot + K] = 0;
+            tile[slot + BACKPOINTER] = Grid.NO_CELL;
+            tile[slot + FLAGS] = Node.NEW | grid.getType(cell) << 8;
+        }
+        int old = tile[slot + word];
+        tile[slot + word] = old & ~mask | value & mask;
+        //Marking a cell as on a path isn't a change that a trace records.
+        if (changes != null &&
+            ((old ^ tile[slot + word]) & (word == FLAGS ? ~ON_PATH : -1)) != 0)
+        {
+            changes.add(cell);
+        }
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return h(cell).
+     */
+    int getH(int cell)
+    {
+        return read(cell, H, 0);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param value is the new h value, or CostScale.INFINITY.
+     */
+    void setH(int cell, int value)
+    {
+        write(cell, H, value, -1);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return k(cell).
+     */
+    int getK(int cell)
+    {
+        return read(cell, K, 0);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param value is the new k value, or CostScale.INFINITY.
+     */
+    void setK(int cell, int value)
+    {
+        write(cell, K, value, -1);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return h(cell) as it is displayed; see CostScale.toFloat.
+     */
+    float getDisplayH(int cell)
+    {
+        return scale.toFloat(getH(cell));
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param value is the new h value as it is displayed.
+     */
+    void setDisplayH(int cell, float value)
+    {
+        setH(cell, scale.fromFloat(value));
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return k(cell) as it is displayed; see CostScale.toFloat.
+     */
+    float getDisplayK(int cell)
+    {
+        return scale.toFloat(getK(cell));
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param value is the new k value as it is displayed.
+     */
+    void setDisplayK(int cell, float value)
+    {
+        setK(cell, scale.fromFloat(value));
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the state of the cell, one of Node.NEW, Node.OPEN or
+     * Node.CLOSED.
+     */
+    int getState(int cell)
+    {
+        return read(cell, FLAGS, Node.NEW) & 0xFF;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param value is one of Node.NEW, Node.OPEN or Node.CLOSED.
+     */
+    void setState(int cell, int value)
+    {
+        write(cell, FLAGS, value, 0xFF);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the type that the search believes the cell has, one of the
+     * type constants in Node.
+     */
+    char getType(int cell)
+    {
+        int flags = read(cell, FLAGS, -1);
+        return flags >= 0 ? (char)(flags >>> 8 & 0xFF) : grid.getType(cell);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param value is one of the type constants in Node.
+     */
+    void setType(int cell, char value)
+    {
+        int flags = read(cell, FLAGS, 0);
+        if ((flags & ON_PATH) != 0 && (flags >>> 8 & 0xFF) != value)
+        {
+            path_changes++;
+        }
+        write(cell, FLAGS, value << 8, 0xFF00);
+        if ((value == Node.BLOCKED) != isBlocked(cell))
+        {
+            if (flipped_count == flipped_cells.length)
+            {
+                flipped_cells = Arrays.copyOf(flipped_cells,
+                                              flipped_count * 2);
+            }
+            flipped_cells[flipped_count++] = cell;
+            flipped.set(cell, !flipped.get(cell));
+        }
+        if (Node.weight(value) > 1)
+        {
+            weighted = true;
+        }
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the index of the cell's backpointer, or Grid.NO_CELL.
+     */
+    int getBackpointer(int cell)
+    {
+        return read(cell, BACKPOINTER, Grid.NO_CELL);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @param value is the index of the new backpointer, or Grid.NO_CELL.
+     */
+    void setBackpointer(int cell, int value)
+    {
+        if (isOnPath(cell) && getBackpointer(cell) != value)
+        {
+            path_changes++;
+        }
+        write(cell, BACKPOINTER, value, -1);
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return true if the cell is marked as being on a cached path.
+     */
+    boolean isOnPath(int cell)
+    {
+        return (read(cell, FLAGS, 0) & ON_PATH) != 0;
+    }
+    
+    /**
+     * Mark a cell as being on a cached path, or unmark it.  Unmarking a
+     * cell that hasn't been written since the last reset does nothing.
+     * @param cell is the index of a cell.
+     * @param on_path is true to mark the cell.
+     */
+    void setOnPath(int cell, boolean on_path)
+    {
+        if (on_path || isOnPath(cell))
+        {
+            write(cell, FLAGS, on_path ? ON_PATH : 0, ON_PATH);
+        }
+    }
+    
+    /**
+     * @return a count that goes up whenever the backpointer or type of a
+     * cell marked as on a path changes, and at every reset.
+     */
+    int getPathChanges()
+    {
+        return path_changes;
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return true if the cell is NEW and UNRESTRICTED, with h and k of 0
+     * and no backpointer, like every cell of a new SearchState over an empty
+     * Grid.
+     */
+    boolean isBlank(int cell)
+    {
+        return getH(cell) == 0 && getK(cell) == 0 &&
+               getState(cell) == Node.NEW &&
+               getType(cell) == Node.UNRESTRICTED &&
+               getBackpointer(cell) == Grid.NO_CELL;
+    }
+    
+    /**
+     * Get a Node view of the cell at the given index.  The view reads and
+     * writes this SearchState directly, so it is always up to date.
+     * @param cell is the index of a cell.
+     * @return a Node for the cell, or null if cell is Grid.NO_CELL.
+     */
+    public Node getNode(int cell)
+    {
+        return cell == Grid.NO_CELL ? null : new Node(this, cell);
+    }
+}
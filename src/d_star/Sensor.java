@@ -0,0 +1,129 @@
+package d_star;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simulated range sensor for a robot executing a plan.  After every move
+ * it finds every UNKNOWN_BLOCKED cell within its radius of the robot that
+ * the robot doesn't yet know is blocked, so that a planner can apply them
+ * all as one batch instead of replanning once for each cell the robot
+ * bumps into.  With line of sight, a cell is only seen if no obstacle on
+ * the map lies on the straight line between it and the robot.
+ * @author Kevin Dittmar
+ */
+public final class Sensor
+{
+    private final int radius;
+    private final boolean line_of_sight;
+    
+    /**
+     * @param radius is how many cells away the sensor can see, measured in
+     * a straight line between cell centers.
+     * @param line_of_sight is true if obstacles hide the cells behind them.
+     * @throws IllegalArgumentException if the radius is less than 1.
+     */
+    public Sensor(int radius, boolean line_of_sight)
+    {
+        if (radius < 1)
+        {
+            throw new IllegalArgumentException(
+                "Sensor radius must be at least 1, not " + radius);
+        }
+        this.radius = radius;
+        this.line_of_sight = line_of_sight;
+    }
+    
+    /**
+     * @return how many cells away the sensor can see.
+     */
+    public int getRadius()
+    {
+        return radius;
+    }
+    
+    /**
+     * @return true if obstacles hide the cells behind them.
+     */
+    public boolean hasLineOfSight()
+    {
+        return line_of_sight;
+    }
+    
+    /**
+     * Look around the robot for obstacles that it doesn't know about yet.
+     * @param grid is the map, which holds where the obstacles really are.
+     * @param world is what the robot believes about the map.
+     * @param robot is the cell that the robot occupies.
+     * @return an update blocking each hidden obstacle in sight, in
+     * row-major order, or an empty list if there are none.
+     */
+    List<CellUpdate> scan(Grid grid, SearchState world, int robot)
+    {
+        List<CellUpdate> seen = new ArrayList<>();
+        int row = grid.getRow(robot);
+        int col = grid.getCol(robot);
+        int top = Math.max(0, row - radius);
+        int bottom = Math.min(grid.getRows() - 1, row + radius);
+        int left = Math.max(0, col - radius);
+        int right = Math.min(grid.getCols() - 1, col + radius);
+        for (int r = top; r <= bottom; r++)
+        {
+            for (int c = left; c <= right; c++)
+            {
+                int cell = r * grid.getCols() + c;
+                int dr = r - row;
+                int dc = c - col;
+                if (cell != robot && dr * dr + dc * dc <= radius * radius &&
+                    world.getType(cell) == Node.UNKNOWN_BLOCKED &&
+                    (!line_of_sight || isVisible(grid, row, col, r, c)))
+                {
+                    seen.add(CellUpdate.blocked(cell));
+                }
+            }
+        }
+        return seen;
+    }
+    
+    /**
+     * Walk Bresenham's line from one cell to another and check that no
+     * cell strictly between them is an obstacle on the map.
+     * @param grid is the map.
+     * @param row is the row of the cell that is looking.
+     * @param col is the column of the cell that is looking.
+     * @param to_row is the row of the cell being looked at.
+     * @param to_col is the column of the cell being looked at.
+     * @return true if nothing blocks the line between the two cells.
+     */
+    private static boolean isVisible(Grid grid, int row, int col,
+                                     int to_row, int to_col)
+    {
+        int rows_apart = Math.abs(to_row - row);
+        int cols_apart = Math.abs(to_col - col);
+        int row_step = to_row > row ? 1 : -1;
+        int col_step = to_col > col ? 1 : -1;
+        int error = cols_apart - rows_apart;
+        while (true)
+        {
+            int twice = 2 * error;
+            if (twice > -rows_apart)
+            {
+                error -= rows_apart;
+                col += col_step;
+            }
+            if (twice < cols_apart)
+            {
+                error += cols_apart;
+                row += row_step;
+            }
+            if (row == to_row && col == to_col)
+            {
+                return true;
+            }
+            if (grid.isObstacle(grid.index(row, col)))
+            {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package d_star;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes text snapshots of a SearchState, one after another, to an output stream.
+ * Each snapshot shows the name, h, k, b, state and type of every cell and
+ * where the robot is, with every field padded to a fixed width.
+ * 
+ * Snapshots are formatted one line at a time into a reusable StringBuilder
+ * and copied into a reusable byte buffer, so writing a snapshot costs time
+ * proportional to its size and allocates nothing per cell.
+ * @author Kevin Dittmar
+ */
+class SnapshotWriter implements Trace
+{
+    //Every field in a snapshot is padded with spaces to this many characters.
+    static final int FIELD_WIDTH = 15;
+    
+    private static final String SEPARATOR =
+        "**************************************************" +
+        "**************************************************";
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final OutputStream out;
+    private final SearchState world;
+    private final Grid grid;
+    private final StringBuilder line;
+    private final byte[] buffer;
+    private int count;
+    
+    /**
+     * @param out is the stream to write snapshots to.  It is closed when this
+     * SnapshotWriter is closed.
+     * @param world is the SearchState to take snapshots of.
+     */
+    SnapshotWriter(OutputStream out, SearchState world)
+    {
+        this.out = out;
+        this.world = world;
+        grid = world.getGrid();
+        line = new StringBuilder(FIELD_WIDTH * Math.max(grid.getCols(), 1));
+        buffer = new byte[BUFFER_SIZE];
+        count = 0;
+    }
+    
+    /**
+     * Write the current state of the world, including the current position
+     * of the robot.
+     * @param robot is the cell that the robot occupies.
+     * @throws IOException if the underlying stream can't be written to.
+     */
+    @Override
+    public void write(int robot) throws IOException
+    {
+        int rows = grid.getRows();
+        int cols = grid.getCols();
+        for (int row = 0; row < rows; row++)
+        {
+            int first = row * cols;
+            int last = first + cols;
+            
+            //Print Name
+            for (int cell = first; cell < last; cell++)
+            {
+                int start = line.length();
+                appendName(cell);
+                pad(start);
+            }
+            endLine();
+            //Print h
+            for (int cell = first; cell < last; cell++)
+            {
+                int start = line.length();
+                line.append("h: ").append(world.getDisplayH(cell));
+                pad(start);
+            }
+            endLine();
+            //Print k
+            for (int cell = first; cell < last; cell++)
+            {
+                int start = line.length();
+                line.append("k: ").append(world.getDisplayK(cell));
+                pad(start);
+            }
+            endLine();
+            //Print b
+            for (int cell = first; cell < last; cell++)
+            {
+                int start = line.length();
+                int b = world.getBackpointer(cell);
+                line.append("b:");
+                if (b != Grid.NO_CELL)
+                {
+                    line.append(' ');
+                    appendName(b);
+                }
+                pad(start);
+            }
+            endLine();
+            //Print state
+            for (int cell = first; cell < last; cell++)
+            {
+                int start = line.length();
+                line.append(stateName(world.getState(cell)));
+                pad(start);
+            }
+            endLine();
+            //Print type
+            for (int cell = first; cell < last; cell++)
+            {
+                int start = line.length();
+                line.append(world.getType(cell));
+                pad(start);
+            }
+            endLine();
+            //Print "Robot" if it's currently here
+            boolean line_has_robot = robot >= first && robot < last;
+            for (int cell = first; cell < last; cell++)
+            {
+                int start = line.length();
+                if (cell == robot)
+                {
+                    line.append("ROBOT");
+                }
+                pad(start);
+            }
+            
+            if (line_has_robot)
+            {
+                line.append('\n');
+            }
+            line.append("\n\n");
+            flushLine();
+        }
+        line.append(SEPARATOR).append("\n\n");
+        flushLine();
+    }
+    
+    /**
+     * Push everything written so far to the underlying stream.
+     * @throws IOException if the underlying stream can't be written to.
+     */
+    void flush() throws IOException
+    {
+        flushBuffer();
+        out.flush();
+    }
+    
+    /**
+     * Flush and close the underlying stream.
+     * @throws IOException if the underlying stream can't be written to.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        out.close();
+    }
+    
+    /**
+     * @param state is one of Node.NEW, Node.OPEN or Node.CLOSED.
+     * @return the name of the state as it appears in a snapshot.
+     */
+    static String stateName(int state)
+    {
+        if (state == Node.NEW)
+        {
+            return "NEW";
+        }
+        else if (state == Node.OPEN)
+        {
+            return "OPEN";
+        }
+        else if (state == Node.CLOSED)
+        {
+            return "CLOSED";
+        }
+        return "";
+    }
+    
+    /**
+     * Append the name of a cell, in the form (row,col), to the line.
+     * @param cell is the index of the cell.
+     */
+    private void appendName(int cell)
+    {
+        line.append('(').append(grid.getRow(cell)).append(',')
+            .append(grid.getCol(cell)).append(')');
+    }
+    
+    /**
+     * Pad the field that starts at the given position in the line with
+     * spaces until it is at least FIELD_WIDTH characters long.
+     * @param start is the position in the line where the field starts.
+     */
+    private void pad(int start)
+    {
+        for (int i = line.length() - start; i < FIELD_WIDTH; i++)
+        {
+            line.append(' ');
+        }
+    }
+    
+    /**
+     * End the current line and move it to the output buffer.
+     * @throws IOException if the underlying stream can't be written to.
+     */
+    private void endLine() throws IOException
+    {
+        line.append('\n');
+        flushLine();
+    }
+    
+    /**
+     * Copy the line into the output buffer and empty it.  Snapshots are
+     * plain ASCII, so every char becomes a single byte.
+     * @throws IOException if the underlying stream can't be written to.
+     */
+    private void flushLine() throws IOException
+    {
+        int length = line.length();
+        for (int i = 0; i < length; i++)
+        {
+            if (count == buffer.length)
+            {
+                flushBuffer();
+            }
+            buffer[count++] = (byte)line.charAt(i);
+        }
+        line.setLength(0);
+    }
+    
+    /**
+     * Write the output buffer to the underlying stream and empty it.
+     * @throws IOException if the underlying stream can't be written to.
+     */
+    private void flushBuffer() throws IOException
+    {
+        if (count > 0)
+        {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package d_star;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Something that records the state of the world after each step of the
+ * planner.
+ * @author Kevin Dittmar
+ */
+interface Trace extends Closeable
+{
+    /**
+     * A Trace that records nothing.
+     */
+    Trace OFF = new Trace()
+    {
+        @Override
+        public void write(int robot)
+        {
+        }
+        
+        @Override
+        public void close()
+        {
+        }
+    };
+    
+    /**
+     * Record the current state of the world.
+     * @param robot is the cell that the robot occupies.
+     * @throws IOException if the trace can't be written to.
+     */
+    void write(int robot) throws IOException;
+}
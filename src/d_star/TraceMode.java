@@ -0,0 +1,70 @@
+package d_star;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * How much of the planner's progress a Planner writes to its output file.
+ * @author Kevin Dittmar
+ */
+public enum TraceMode
+{
+    /**
+     * A snapshot of every cell after every step.
+     */
+    FULL,
+    
+    /**
+     * Only the cells whose h, k, b, state or type changed since the previous
+     * step, plus the robot's position.  DeltaTraceReader can turn this back
+     * into FULL output.
+     */
+    DELTA,
+    
+    /**
+     * The same information as DELTA in a compact binary format, written to
+     * output.bin.  BinaryTraceReader can seek to any step and write it out
+     * as FULL output.
+     */
+    BINARY,
+    
+    /**
+     * Only the cells that the robot moves through.
+     */
+    PATH_ONLY,
+    
+    /**
+     * Nothing at all.
+     */
+    OFF;
+    
+    /**
+     * Open the output file for this trace mode: output.bin for BINARY and
+     * output.txt for everything else.
+     * @param search is the search state to record.
+     * @return a Trace that writes to the file, or one that writes nothing if
+     * this mode is OFF.
+     * @throws IOException if the file can't be opened.
+     */
+    Trace open(SearchState search) throws IOException
+    {
+        File file = new File(this == BINARY ? "output.bin" : "output.txt");
+        switch (this)
+        {
+            case DELTA:
+                return new DeltaTraceWriter(new FileWriter(file), search);
+            case BINARY:
+                return new BinaryTraceWriter(new FileOutputStream(file)
+                                                 .getChannel(), search);
+            case PATH_ONLY:
+                return new PathTraceWriter(new FileWriter(file),
+                                           search.getGrid());
+            case OFF:
+                return Trace.OFF;
+            default:
+                return new SnapshotWriter(new FileOutputStream(file), search);
+        }
+    }
+}
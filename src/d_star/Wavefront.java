@@ -0,0 +1,506 @@
+package d_star;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the cost of the cheapest path from every cell to the goal on many
+ * threads at once, for a D_Star's first plan on a big map.  The map is cut
+ * into square tiles of TILE_SIZE cells a side.  In each round, every tile
+ * that has been offered a cheaper cost at its border runs Dijkstra's
+ * algorithm over its own cells on a ForkJoinPool, and offers what it finds
+ * at its border to the tiles next to it for the next round.  Rounds go on
+ * until no tile is offered anything, at which point every cost is the
+ * cheapest, just as it would be after a single Dijkstra over the whole
+ * map.
+ *
+ * A tile only writes its own cells, and offers to its neighbors are read
+ * only in the round after they are made, so tiles never share anything
+ * that is being written.  The costs are only kept for tiles that the
+ * search reaches, and no cell is expanded once its cost is more than the
+ * robot's: those cells can't be on the robot's cheapest path, and D*
+ * leaves them on its open list in the same way.
+ * @author Kevin Dittmar
+ */
+final class Wavefront
+{
+    //The width and height of a tile, in cells.
+    static final int TILE_SIZE = 64;
+    
+    //Offers to one neighbor from one round, in the two buffers of a tile.
+    private static final int SLOTS = 9;
+    
+    private final Grid grid;
+    private final SearchState world;
+    private final int robot;
+    private final int goal;
+    private final int tile_cols;
+    
+    //Every tile of the map, or null for tiles that the search never reached.
+    private final Tile[] tiles;
+    
+    //The cheapest cost to the robot found so far.
+    private final AtomicInteger bound;
+    
+    //The number of cells expanded, by every tile.
+    private final AtomicLong expansions;
+    
+    /**
+     * The costs of the cells of one tile, and its offers to the tiles
+     * around it.
+     */
+    private final class Tile
+    {
+        private final int id;
+        private final int top;
+        private final int left;
+        private final int height;
+        private final int width;
+        
+        //The cost of each cell, row by row, or CostScale.INFINITY.
+        private final int[] costs;
+        
+        /* The cells waiting to be expanded, each a cost in the high int and
+         * a place in costs in the low one.  A cell can be in the heap more
+         * than once; only its entry with its current cost counts.
+         */
+        private long[] heap;
+        private int heap_size;
+        
+        /* Offers to the tile in each direction, in two buffers that take
+         * turns from round to round: the cells and their offered costs, and
+         * the round that each buffer was last written in.
+         */
+        private final int[][] offer_cells;
+        private final int[][] offer_costs;
+        private final int[] offer_sizes;
+        private final int[] offer_rounds;
+        
+        //The last round that this tile was put in to run.
+        private int scheduled;
+        
+        //The robot's place in costs, or -1 if it isn't in this tile.
+        private final int robot_place;
+        
+        //Scratch space for finding the neighbors of a cell.
+        private final int[] neighbors;
+        
+        /**
+         * @param id is the number of the tile.
+         */
+        private Tile(int id)
+        {
+            this.id = id;
+            top = id / tile_cols * TILE_SIZE;
+            left = id % tile_cols * TILE_SIZE;
+            height = Math.min(TILE_SIZE, grid.getRows() - top);
+            width = Math.min(TILE_SIZE, grid.getCols() - left);
+            costs = new int[height * width];
+            Arrays.fill(costs, CostScale.INFINITY);
+            heap = new long[64];
+            offer_cells = new int[2 * SLOTS][];
+            offer_costs = new int[2 * SLOTS][];
+            offer_sizes = new int[2 * SLOTS];
+            offer_rounds = new int[2 * SLOTS];
+            Arrays.fill(offer_rounds, -1);
+            scheduled = -1;
+            robot_place = place(robot);
+            neighbors = new int[Grid.DIRECTIONS];
+        }
+        
+        /**
+         * @param cell is the index of a cell.
+         * @return the cell's place in costs, or -1 if it isn't in the tile.
+         */
+        private int place(int cell)
+        {
+            int row = grid.getRow(cell) - top;
+            int col = grid.getCol(cell) - left;
+            if (row < 0 || row >= height || col < 0 || col >= width)
+            {
+                return -1;
+            }
+            return row * width + col;
+        }
+        
+        /**
+         * @param place is a place in costs.
+         * @return the index of the cell there.
+         */
+        private int cell(int place)
+        {
+            return grid.index(top + place / width, left + place % width);
+        }
+        
+        /**
+         * Do one round: take the offers made to this tile in the last
+         * round, then expand its cells cheapest first.
+         * @param round is the number of the round.
+         */
+        private void run(int round)
+        {
+            int write = (round & 1) * SLOTS;
+            for (int slot = 0; slot < SLOTS; slot++)
+            {
+                offer_sizes[write + slot] = 0;
+                offer_rounds[write + slot] = round;
+            }
+            
+            //Take the offers from each neighbor in the direction of this tile.
+            int read = (round + 1 & 1) * SLOTS;
+            int tile_rows = tiles.length / tile_cols;
+            for (int slot = 0; slot < SLOTS; slot++)
+            {
+                int row = id / tile_cols - (slot / 3 - 1);
+                int col = id % tile_cols - (slot % 3 - 1);
+                if (slot == SLOTS / 2 || row < 0 || row >= tile_rows ||
+                    col < 0 || col >= tile_cols)
+                {
+                    continue;
+                }
+                Tile from = tiles[row * tile_cols + col];
+                if (from == null || from.offer_rounds[read + slot] != round - 1)
+                {
+                    continue;
+                }
+                for (int i = 0; i < from.offer_sizes[read + slot]; i++)
+                {
+                    lower(place(from.offer_cells[read + slot][i]),
+                          from.offer_costs[read + slot][i]);
+                }
+            }
+            
+            long expanded = 0;
+            while (heap_size > 0)
+            {
+                long entry = poll();
+                int cost = (int)(entry >>> 32);
+                int place = (int)entry;
+                if (cost != costs[place])
+                {
+                    continue;
+                }
+                if (cost > bound.get())
+                {
+                    //Every cell left costs more than the robot, so stop.
+                    heap_size = 0;
+                    break;
+                }
+                expanded++;
+                int x = cell(place);
+                world.getNeighbors(x, neighbors);
+                for (int d = 0; d < Grid.DIRECTIONS; d++)
+                {
+                    int y = neighbors[d];
+                    if (y == Grid.NO_CELL)
+                    {
+                        continue;
+                    }
+                    int h_new = CostScale.add(cost, world.cost(x, y, d));
+                    if (h_new == CostScale.INFINITY)
+                    {
+                        continue;
+                    }
+                    int y_place = place(y);
+                    if (y_place >= 0)
+                    {
+                        lower(y_place, h_new);
+                    }
+                    else
+                    {
+                        offer(write, y, h_new);
+                    }
+                }
+            }
+            expansions.addAndGet(expanded);
+        }
+        
+        /**
+         * Give a cell of this tile a cost if it is cheaper than the one it
+         * has, and put it in the heap to be expanded.
+         * @param place is the cell's place in costs.
+         * @param cost is the cell's new cost.
+         */
+        private void lower(int place, int cost)
+        {
+            if (cost >= costs[place])
+            {
+                return;
+            }
+            costs[place] = cost;
+            if (heap_size == heap.length)
+            {
+                heap = Arrays.copyOf(heap, heap_size * 2);
+            }
+            heap[heap_size] = (long)cost << 32 | place;
+            siftUp(heap_size++);
+            if (place == robot_place)
+            {
+                bound.accumulateAndGet(cost, Math::min);
+            }
+        }
+        
+        /**
+         * Offer a cost to a cell of a neighboring tile.
+         * @param write is the buffer of this round's offers.
+         * @param cell is the index of a cell in a neighboring tile.
+         * @param cost is the cost offered.
+         */
+        private void offer(int write, int cell, int cost)
+        {
+            int slot = (grid.getRow(cell) / TILE_SIZE - top / TILE_SIZE + 1) *
+                       3 +
+                       grid.getCol(cell) / TILE_SIZE - left / TILE_SIZE + 1;
+            int i = write + slot;
+            if (offer_cells[i] == null)
+            {
+                offer_cells[i] = new int[16];
+                offer_costs[i] = new int[16];
+            }
+            else if (offer_sizes[i] == offer_cells[i].length)
+            {
+                offer_cells[i] = Arrays.copyOf(offer_cells[i],
+                                               offer_sizes[i] * 2);
+                offer_costs[i] = Arrays.copyOf(offer_costs[i],
+                                               offer_sizes[i] * 2);
+            }
+            offer_cells[i][offer_sizes[i]] = cell;
+            offer_costs[i][offer_sizes[i]++] = cost;
+        }
+        
+        /**
+         * @return the cheapest entry of the heap, which is taken out.
+         */
+        private long poll()
+        {
+            long first = heap[0];
+            heap[0] = heap[--heap_size];
+            int i = 0;
+            while (true)
+            {
+                int child = 2 * i + 1;
+                if (child >= heap_size)
+                {
+                    break;
+                }
+                if (child + 1 < heap_size && heap[child + 1] < heap[child])
+                {
+                    child++;
+                }
+                if (heap[i] <= heap[child])
+                {
+                    break;
+                }
+                swap(i, child);
+                i = child;
+            }
+            return first;
+        }
+        
+        /**
+         * @param i is the place of an entry that may be cheaper than its
+         * parent.
+         */
+        private void siftUp(int i)
+        {
+            while (i > 0 && heap[i] < heap[(i - 1) / 2])
+            {
+                swap(i, (i - 1) / 2);
+                i = (i - 1) / 2;
+            }
+        }
+        
+        /**
+         * @param i is the place of an entry of the heap.
+         * @param j is the place of another.
+         */
+        private void swap(int i, int j)
+        {
+            long entry = heap[i];
+            heap[i] = heap[j];
+            heap[j] = entry;
+        }
+    }
+    
+    /**
+     * Runs one round over a range of the tiles due to run, splitting it in
+     * half until there is a single tile.
+     */
+    private static final class Round extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final ArrayList<Tile> due;
+        private final int from;
+        private final int to;
+        private final int round;
+        
+        /**
+         * @param due is the tiles due to run.
+         * @param from is the place in due of the first tile to run.
+         * @param to is the place in due after the last tile to run.
+         * @param round is the number of the round.
+         */
+        private Round(ArrayList<Tile> due, int from, int to, int round)
+        {
+            this.due = due;
+            this.from = from;
+            this.to = to;
+            this.round = round;
+        }
+        
+        @Override
+        protected void compute()
+        {
+            if (to - from == 1)
+            {
+                due.get(from).run(round);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Round(due, from, middle, round),
+                      new Round(due, middle, to, round));
+        }
+    }
+    
+    /**
+     * @param world is what the robot believes about the map; it mustn't
+     * change while the wavefront runs.
+     * @param robot is the cell where the robot is.
+     * @param goal is the cell that the robot is trying to reach.
+     */
+    Wavefront(SearchState world, int robot, int goal)
+    {
+        this.world = world;
+        this.robot = robot;
+        this.goal = goal;
+        grid = world.getGrid();
+        tile_cols = (grid.getCols() + TILE_SIZE - 1) / TILE_SIZE;
+        int tile_rows = (grid.getRows() + TILE_SIZE - 1) / TILE_SIZE;
+        tiles = new Tile[tile_rows * tile_cols];
+        bound = new AtomicInteger(CostScale.INFINITY);
+        expansions = new AtomicLong();
+    }
+    
+    /**
+     * Find the cost to the goal of every cell that costs no more than the
+     * robot.
+     * @param pool runs the tiles of each round.
+     * @return the cost of the robot's cheapest path, or CostScale.INFINITY
+     * if it can't reach the goal.
+     */
+    int run(ForkJoinPool pool)
+    {
+        Tile first = tile(goal);
+        first.lower(first.place(goal), 0);
+        ArrayList<Tile> due = new ArrayList<>();
+        due.add(first);
+        for (int round = 0; !due.isEmpty(); round++)
+        {
+            pool.invoke(new Round(due, 0, due.size(), round));
+            
+            //The tiles offered anything this round run in the next.
+            ArrayList<Tile> next = new ArrayList<>();
+            int write = (round & 1) * SLOTS;
+            for (Tile tile : due)
+            {
+                for (int slot = 0; slot < SLOTS; slot++)
+                {
+                    if (tile.offer_sizes[write + slot] == 0)
+                    {
+                        continue;
+                    }
+                    Tile to = tile(tile.offer_cells[write + slot][0]);
+                    if (to.scheduled != round + 1)
+                    {
+                        to.scheduled = round + 1;
+                        next.add(to);
+                    }
+                }
+            }
+            due = next;
+        }
+        return bound.get();
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the tile that holds the cell, created if it didn't exist.
+     */
+    private Tile tile(int cell)
+    {
+        int id = grid.getRow(cell) / TILE_SIZE * tile_cols +
+                 grid.getCol(cell) / TILE_SIZE;
+        if (tiles[id] == null)
+        {
+            tiles[id] = new Tile(id);
+        }
+        return tiles[id];
+    }
+    
+    /**
+     * @param cell is the index of a cell.
+     * @return the cell's cost to the goal, or CostScale.INFINITY if the
+     * search didn't reach it.
+     */
+    int getCost(int cell)
+    {
+        Tile tile = tiles[grid.getRow(cell) / TILE_SIZE * tile_cols +
+                          grid.getCol(cell) / TILE_SIZE];
+        return tile == null ? CostScale.INFINITY :
+                              tile.costs[tile.place(cell)];
+    }
+    
+    /**
+     * @return the number of cells expanded.
+     */
+    long getExpansions()
+    {
+        return expansions.get();
+    }
+    
+    /**
+     * List every cell that costs no more than a limit, cheapest first.
+     * @param limit is the most that a listed cell may cost.
+     * @param pool sorts the list.
+     * @return each cell's cost in the high int and its index in the low
+     * one, so that cells of equal cost are in order of their index.
+     */
+    long[] sortCells(int limit, ForkJoinPool pool)
+    {
+        int count = 0;
+        for (Tile tile : tiles)
+        {
+            for (int place = 0; tile != null && place < tile.costs.length;
+                 place++)
+            {
+                if (tile.costs[place] <= limit &&
+                    tile.costs[place] != CostScale.INFINITY)
+                {
+                    count++;
+                }
+            }
+        }
+        long[] cells = new long[count];
+        count = 0;
+        for (Tile tile : tiles)
+        {
+            for (int place = 0; tile != null && place < tile.costs.length;
+                 place++)
+            {
+                if (tile.costs[place] <= limit &&
+                    tile.costs[place] != CostScale.INFINITY)
+                {
+                    cells[count++] = (long)tile.costs[place] << 32 |
+                                     tile.cell(place);
+                }
+            }
+        }
+        pool.submit(() -> Arrays.parallelSort(cells)).join();
+        return cells;
+    }
+}